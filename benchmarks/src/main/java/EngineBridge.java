@@ -0,0 +1,105 @@
+import java.io.*;
+import java.util.*;
+
+import streamline.bench.Engine;
+
+/**
+ * Implements the benchmarked engine operations. This class lives in the
+ * default package so it can use the engine classes and their package
+ * private members directly.
+ */
+public class EngineBridge implements Engine {
+
+    static final Direction[] DIRECTIONS = Direction.values();
+
+    @Override
+    public Object newState(int height, int width, int obstacleFraction,
+                           long seed) {
+        int playerRow = height / 2;
+        int playerCol = width / 2;
+        GameState state = new GameState(height, width, playerRow, playerCol,
+                0, 0);
+        Random random = new Random(seed);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                boolean cross = row == playerRow || col == playerCol;
+                boolean goal = row == 0 && col == 0;
+                if (!cross && !goal
+                        && random.nextInt(obstacleFraction) == 0) {
+                    state.board.set(row, col, GameState.OBSTACLE_CHAR);
+                }
+            }
+        }
+        return state;
+    }
+
+    @Override
+    public Object copy(Object state) {
+        return new GameState((GameState) state);
+    }
+
+    @Override
+    public Object move(Object state, int direction) {
+        return ((GameState) state).move(DIRECTIONS[direction]);
+    }
+
+    @Override
+    public void undo(Object state, Object delta) {
+        ((GameState) state).undo((MoveDelta) delta);
+    }
+
+    @Override
+    public void rotateClockwise(Object state) {
+        ((GameState) state).rotateClockwise();
+    }
+
+    @Override
+    public boolean same(Object state, Object other) {
+        return state.equals(other);
+    }
+
+    @Override
+    public String render(Object state) {
+        return state.toString();
+    }
+
+    @Override
+    public void addRandomObstacles(Object state, int count) {
+        ((GameState) state).addRandomObstacles(count);
+    }
+
+    @Override
+    public Object newGame(Object state) {
+        return new Streamline(new GameState((GameState) state));
+    }
+
+    @Override
+    public void recordAndMove(Object game, int direction) {
+        ((Streamline) game).recordAndMove(DIRECTIONS[direction]);
+    }
+
+    @Override
+    public void undoMove(Object game) {
+        ((Streamline) game).undo();
+    }
+
+    @Override
+    public void saveLevel(Object state, String filename) throws IOException {
+        GameState gameState = (GameState) state;
+        try (PrintWriter output = new PrintWriter(new File(filename))) {
+            output.println(gameState.board.getHeight() + " "
+                    + gameState.board.getWidth());
+            output.println(gameState.playerRow + " " + gameState.playerCol);
+            output.println(gameState.goalRow + " " + gameState.goalCol);
+            for (int row = 0; row < gameState.board.getHeight(); row++) {
+                output.println(gameState.board.rowString(row));
+            }
+        }
+    }
+
+    @Override
+    public void loadFromFile(Object game, String filename)
+            throws IOException {
+        ((Streamline) game).loadFromFile(filename);
+    }
+}
@@ -0,0 +1,29 @@
+package streamline.bench;
+
+/**
+ * Board sizes used by the benchmarks, written as "height x width" so they
+ * can be used as JMH parameters.
+ */
+final class BoardSize {
+
+    static final String SMALLEST = "6x5";
+    static final int OBSTACLE_FRACTION = 5;
+    static final long SEED = 42;
+
+    private BoardSize() {
+    }
+
+    static int height(String size) {
+        return Integer.parseInt(size.substring(0, size.indexOf('x')));
+    }
+
+    static int width(String size) {
+        return Integer.parseInt(size.substring(size.indexOf('x') + 1));
+    }
+
+    /** Create a benchmark state of the given size */
+    static Object newState(Engine engine, String size) {
+        return engine.newState(height(size), width(size), OBSTACLE_FRACTION,
+                SEED);
+    }
+}
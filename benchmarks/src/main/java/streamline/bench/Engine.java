@@ -0,0 +1,70 @@
+package streamline.bench;
+
+import java.io.IOException;
+
+/**
+ * The operations of the game engine that are benchmarked.
+ *
+ * JMH does not accept benchmarks in the default package, and classes in
+ * a named package cannot refer to the engine classes, which live in the
+ * default package. The engine is therefore reached through this
+ * interface, implemented by EngineBridge in the default package. States
+ * and games are passed around as plain Objects. The interface has a
+ * single implementation, so the JIT inlines every call.
+ */
+public interface Engine {
+
+    /**
+     * Create a GameState with about one obstacle in every
+     * obstacleFraction cells. The player starts in the middle of the
+     * board with a free row and column around it, so every direction
+     * slides all the way to the edge.
+     */
+    Object newState(int height, int width, int obstacleFraction, long seed);
+
+    /** GameState copy constructor */
+    Object copy(Object state);
+
+    /** GameState.move, returns the delta of the move */
+    Object move(Object state, int direction);
+
+    /** GameState.undo */
+    void undo(Object state, Object delta);
+
+    /** GameState.rotateClockwise */
+    void rotateClockwise(Object state);
+
+    /** GameState.equals */
+    boolean same(Object state, Object other);
+
+    /** GameState.toString */
+    String render(Object state);
+
+    /** GameState.addRandomObstacles */
+    void addRandomObstacles(Object state, int count);
+
+    /** Create a Streamline game that plays the given state */
+    Object newGame(Object state);
+
+    /** Streamline.recordAndMove */
+    void recordAndMove(Object game, int direction);
+
+    /** Streamline.undo */
+    void undoMove(Object game);
+
+    /** Write the given state to a level file */
+    void saveLevel(Object state, String filename) throws IOException;
+
+    /** Streamline.loadFromFile */
+    void loadFromFile(Object game, String filename) throws IOException;
+
+    /** Load the bridge to the engine */
+    static Engine load() {
+        try {
+            return (Engine) Class.forName("EngineBridge")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("EngineBridge is missing", e);
+        }
+    }
+}
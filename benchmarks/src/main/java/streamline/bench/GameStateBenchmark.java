@@ -0,0 +1,91 @@
+package streamline.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the GameState operations other than move.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameStateBenchmark {
+
+    @Param({"6x5", "20x20", "100x100", "1000x1000"})
+    String size;
+
+    Engine engine;
+    Object state;
+    Object sameState;
+    Object equalState;
+
+    @Setup
+    public void setup() {
+        engine = Engine.load();
+        state = BoardSize.newState(engine, size);
+        sameState = engine.copy(state);
+        equalState = BoardSize.newState(engine, size);
+    }
+
+    /**
+     * A fresh copy of the state for benchmarks that change it in a way
+     * that cannot be undone.
+     */
+    @State(Scope.Thread)
+    public static class FreshState {
+        Object state;
+
+        @Setup(Level.Invocation)
+        public void setup(GameStateBenchmark benchmark) {
+            state = benchmark.engine.copy(benchmark.state);
+        }
+    }
+
+    @Benchmark
+    public Object copy() {
+        return engine.copy(state);
+    }
+
+    /**
+     * Equal states where one is a copy of the other. The hashes match and
+     * the copy shares the bitset tiles, so they are compared by reference.
+     */
+    @Benchmark
+    public boolean equalsSame() {
+        return engine.same(state, sameState);
+    }
+
+    /**
+     * Equal states built separately, which share nothing, so every word
+     * of the bitsets has to be compared. This is the worst case.
+     */
+    @Benchmark
+    public boolean equalsSeparate() {
+        return engine.same(state, equalState);
+    }
+
+    @Benchmark
+    public String toStringBoard() {
+        return engine.render(state);
+    }
+
+    /** Four rotations bring the state back to where it started */
+    @Benchmark
+    public Object rotateClockwise() {
+        engine.rotateClockwise(state);
+        return state;
+    }
+
+    /** Adds one obstacle for every hundred cells */
+    @Benchmark
+    public Object addRandomObstacles(FreshState fresh) {
+        int count = Math.max(1, BoardSize.height(size) * BoardSize.width(size)
+                / 100);
+        engine.addRandomObstacles(fresh.state, count);
+        return fresh.state;
+    }
+}
@@ -0,0 +1,42 @@
+package streamline.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures GameState.move in every direction. Each invocation moves and
+ * undoes the move, so the board is the same for every invocation and the
+ * player always slides from the middle of the board to its edge.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveBenchmark {
+
+    @Param({"6x5", "20x20", "100x100", "1000x1000"})
+    String size;
+
+    // RIGHT, UP, LEFT, DOWN
+    @Param({"0", "1", "2", "3"})
+    int direction;
+
+    Engine engine;
+    Object state;
+
+    @Setup
+    public void setup() {
+        engine = Engine.load();
+        state = BoardSize.newState(engine, size);
+    }
+
+    @Benchmark
+    public Object moveAndUndo() {
+        Object delta = engine.move(state, direction);
+        engine.undo(state, delta);
+        return delta;
+    }
+}
@@ -0,0 +1,62 @@
+package streamline.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the Streamline operations that the GUI and the console call
+ * for every command.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamlineBenchmark {
+
+    @Param({"6x5", "20x20", "100x100", "1000x1000"})
+    String size;
+
+    Engine engine;
+    Object state;
+    Object game;
+    File levelFile;
+
+    @Setup
+    public void setup() throws IOException {
+        engine = Engine.load();
+        state = BoardSize.newState(engine, size);
+        levelFile = File.createTempFile("streamline-bench", ".level");
+        engine.saveLevel(state, levelFile.getPath());
+    }
+
+    /** A new game for every iteration, so the move log that the game
+     *  keeps does not grow over the whole run */
+    @Setup(Level.Iteration)
+    public void newGame() {
+        game = engine.newGame(state);
+    }
+
+    @TearDown
+    public void tearDown() {
+        levelFile.delete();
+    }
+
+    /** Moves right and undoes the move, so the game never changes */
+    @Benchmark
+    public Object recordAndMoveThenUndo() {
+        engine.recordAndMove(game, 0);
+        engine.undoMove(game);
+        return game;
+    }
+
+    @Benchmark
+    public Object loadFromFile() throws IOException {
+        engine.loadFromFile(game, levelFile.getPath());
+        return game;
+    }
+}
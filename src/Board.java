@@ -0,0 +1,517 @@
+import java.nio.LongBuffer;
+import java.util.*;
+
+/** This class stores the obstacles and trails of a game board as packed
+  * bitsets, one bit per cell. Every bitset is kept twice, once row by row
+  * and once column by column, so that a slide in any direction is a scan
+  * over consecutive bits.
+  *
+  * Copies of a board share their bitsets: the obstacles as a whole,
+  * since they hardly ever change during a level, and the trails tile by
+  * tile through SharedBits. Copying a board costs one reference per tile,
+  * and a move only copies the few tiles it writes.
+  * */
+public class Board {
+
+    final static int WORD_SHIFT = 6;
+    final static int WORD_BITS = 1 << WORD_SHIFT;
+
+    // Dimensions of the board
+    int height;
+    int width;
+
+    // Number of words used by a single row / column, rows and columns
+    // always start on a new word
+    int rowWords;
+    int colWords;
+
+    // Bit (row * rowWords * WORD_BITS + col) is set when the cell is blocked
+    SharedBits obstacleRows;
+    SharedBits trailRows;
+
+    // Bit (col * colWords * WORD_BITS + row) is set when the cell is blocked
+    SharedBits obstacleCols;
+    SharedBits trailCols;
+
+    // true if another board uses the same obstacle bitsets, which then
+    // have to be copied before they are changed
+    boolean obstaclesShared;
+
+    // Zobrist hash of the dimensions, obstacles and trails, kept up to
+    // date whenever a bit changes
+    long zobrist;
+
+    // Slide lengths up to the next obstacle, built on first use, shared
+    // with copies and dropped whenever an obstacle changes
+    JumpTable jumps;
+
+    // Number of trails in every row / column, a slide along a line
+    // without trails is resolved by the jump table alone
+    int[] rowTrails;
+    int[] colTrails;
+
+    /** Create an empty board with the given dimensions
+      * @param height the number of rows of the board
+      * @param width the number of columns of the board
+      * */
+    public Board(int height, int width) {
+        this.height = height;
+        this.width = width;
+        this.rowWords = (width + WORD_BITS - 1) >>> WORD_SHIFT;
+        this.colWords = (height + WORD_BITS - 1) >>> WORD_SHIFT;
+        this.obstacleRows = new SharedBits(height * rowWords);
+        this.trailRows = new SharedBits(height * rowWords);
+        this.obstacleCols = new SharedBits(width * colWords);
+        this.trailCols = new SharedBits(width * colWords);
+        this.zobrist = sizeKey();
+        this.rowTrails = new int[height];
+        this.colTrails = new int[width];
+    }
+
+    /** The copy constructor of Board, the copy shares all bitsets with
+      * the other board until either of them changes them
+      * @param other the Board object we want to copy from
+      * */
+    public Board(Board other) {
+        this.height = other.height;
+        this.width = other.width;
+        this.rowWords = other.rowWords;
+        this.colWords = other.colWords;
+        this.obstacleRows = other.obstacleRows;
+        this.obstacleCols = other.obstacleCols;
+        this.obstaclesShared = true;
+        //only written if it changes, so that a board that is already
+        //shared can be copied by several threads at once
+        if (!other.obstaclesShared) {
+            other.obstaclesShared = true;
+        }
+        this.trailRows = new SharedBits(other.trailRows);
+        this.trailCols = new SharedBits(other.trailCols);
+        this.zobrist = other.zobrist;
+        //the table only depends on the obstacles, which are equal, so
+        //a table the original has already built is shared; it is not
+        //built here for copies that never slide
+        this.jumps = other.jumps;
+        this.rowTrails = other.rowTrails.clone();
+        this.colTrails = other.colTrails.clone();
+    }
+
+    /** @return the part of the hash that belongs to the dimensions */
+    long sizeKey() {
+        return Zobrist.key(Zobrist.SIZE, ((long) height << Integer.SIZE) | width);
+    }
+
+    /** @return the number of words of a row-major bitset */
+    public int rowMajorWords() {
+        return obstacleRows.words;
+    }
+
+    /** Make sure the obstacle bitsets are not shared with another board,
+      * to be called before they are changed
+      * */
+    void ownObstacles() {
+        if (obstaclesShared) {
+            obstacleRows = new SharedBits(obstacleRows);
+            obstacleCols = new SharedBits(obstacleCols);
+            obstaclesShared = false;
+        }
+    }
+
+    /** Replace every cell of the board with the content of row-major
+      * bitsets laid out like obstacleRows and trailRows. Bits outside the
+      * board are ignored and obstacles win over trails.
+      * @param obstacles rowMajorWords() words of obstacle bits
+      * @param trails rowMajorWords() words of trail bits, or null if
+      *               there are no trails
+      * */
+    public void setRowWords(LongBuffer obstacles, LongBuffer trails) {
+        ownObstacles();
+        obstacleRows.copyFrom(obstacles);
+        if (trails != null) {
+            trailRows.copyFrom(trails);
+        } else {
+            trailRows.clearAll();
+        }
+        obstacleCols.clearAll();
+        trailCols.clearAll();
+        zobrist = sizeKey();
+        jumps = null;
+        Arrays.fill(rowTrails, 0);
+        Arrays.fill(colTrails, 0);
+
+        //mirror every bit into the column-major bitsets and the hash
+        long lastWordMask = -1L >>> -width;
+        for (int word = 0; word < obstacleRows.words; word++) {
+            int row = word / rowWords;
+            int firstCol = (word % rowWords) << WORD_SHIFT;
+            long obstacleWord = obstacleRows.word(word);
+            long trailWord = trailRows.word(word);
+            if (word % rowWords == rowWords - 1) {
+                obstacleWord &= lastWordMask;
+                trailWord &= lastWordMask;
+            }
+            trailWord &= ~obstacleWord;
+            obstacleRows.setWord(word, obstacleWord);
+            trailRows.setWord(word, trailWord);
+            for (long bits = obstacleWord; bits != 0; bits &= bits - 1) {
+                int col = firstCol + Long.numberOfTrailingZeros(bits);
+                obstacleCols.set(colBit(row, col));
+                zobrist ^= Zobrist.key(Zobrist.OBSTACLE, rowBit(row, col));
+            }
+            for (long bits = trailWord; bits != 0; bits &= bits - 1) {
+                int col = firstCol + Long.numberOfTrailingZeros(bits);
+                trailCols.set(colBit(row, col));
+                zobrist ^= Zobrist.key(Zobrist.TRAIL, rowBit(row, col));
+                rowTrails[row]++;
+                colTrails[col]++;
+            }
+        }
+    }
+
+    /** Copy the row-major bitsets into the given buffers
+      * @param obstacles receives rowMajorWords() words of obstacle bits
+      * @param trails receives rowMajorWords() words of trail bits
+      * */
+    public void getRowWords(LongBuffer obstacles, LongBuffer trails) {
+        obstacleRows.copyTo(obstacles);
+        trailRows.copyTo(trails);
+    }
+
+    /** @return true if any cell of the board has a trail */
+    public boolean hasTrails() {
+        return !trailRows.isEmpty();
+    }
+
+    /** @return the number of rows of the board */
+    public int getHeight() {
+        return height;
+    }
+
+    /** @return the number of columns of the board */
+    public int getWidth() {
+        return width;
+    }
+
+    /** Index of the bit for the given cell in the row-major bitsets */
+    int rowBit(int row, int col) {
+        return ((row * rowWords) << WORD_SHIFT) + col;
+    }
+
+    /** Index of the bit for the given cell in the column-major bitsets */
+    int colBit(int row, int col) {
+        return ((col * colWords) << WORD_SHIFT) + row;
+    }
+
+    /** @return true if there is an obstacle at the given cell */
+    public boolean isObstacle(int row, int col) {
+        return obstacleRows.get(rowBit(row, col));
+    }
+
+    /** @return true if there is a trail at the given cell */
+    public boolean isTrail(int row, int col) {
+        return trailRows.get(rowBit(row, col));
+    }
+
+    /** Return the character that represents the given cell
+      * @param row the row index of the cell
+      * @param col the col index of the cell
+      * @return OBSTACLE_CHAR, TRAIL_CHAR or SPACE_CHAR
+      * */
+    public char get(int row, int col) {
+        int bit = rowBit(row, col);
+        if (obstacleRows.get(bit)) {
+            return GameState.OBSTACLE_CHAR;
+        }
+        if (trailRows.get(bit)) {
+            return GameState.TRAIL_CHAR;
+        }
+        return GameState.SPACE_CHAR;
+    }
+
+    /** Set the given cell to the state represented by a character
+      * @param row the row index of the cell
+      * @param col the col index of the cell
+      * @param c OBSTACLE_CHAR, TRAIL_CHAR or SPACE_CHAR
+      * @throws IllegalArgumentException if c is not one of the above
+      * */
+    public void set(int row, int col, char c) {
+        if (c != GameState.OBSTACLE_CHAR && c != GameState.TRAIL_CHAR
+                && c != GameState.SPACE_CHAR) {
+            throw new IllegalArgumentException("Unknown board character '"
+                    + c + "' at row " + row + ", col " + col);
+        }
+        int rowBit = rowBit(row, col);
+        int colBit = colBit(row, col);
+        //remove whatever was on the cell, then add the new content
+        if (obstacleRows.get(rowBit)) {
+            if (c == GameState.OBSTACLE_CHAR) {
+                return;
+            }
+            ownObstacles();
+            obstacleRows.clear(rowBit);
+            obstacleCols.clear(colBit);
+            zobrist ^= Zobrist.key(Zobrist.OBSTACLE, rowBit);
+            jumps = null;
+        }
+        if (trailRows.get(rowBit)) {
+            trailRows.clear(rowBit);
+            trailCols.clear(colBit);
+            zobrist ^= Zobrist.key(Zobrist.TRAIL, rowBit);
+            rowTrails[row]--;
+            colTrails[col]--;
+        }
+        if (c == GameState.OBSTACLE_CHAR) {
+            ownObstacles();
+            obstacleRows.set(rowBit);
+            obstacleCols.set(colBit);
+            zobrist ^= Zobrist.key(Zobrist.OBSTACLE, rowBit);
+            jumps = null;
+        } else if (c == GameState.TRAIL_CHAR) {
+            trailRows.set(rowBit);
+            trailCols.set(colBit);
+            zobrist ^= Zobrist.key(Zobrist.TRAIL, rowBit);
+            rowTrails[row]++;
+            colTrails[col]++;
+        }
+    }
+
+    /** Return the jump table of the current obstacles, building it if
+      * needed
+      * @return the table, or null if the board is too large for one
+      * */
+    public JumpTable jumpTable() {
+        if (jumps == null && (long) height * width <= JumpTable.MAX_CELLS) {
+            jumps = new JumpTable(this);
+        }
+        return jumps;
+    }
+
+    /** Count how many cells can be walked through from the given cell
+      * in the given direction before an obstacle, a trail or the edge
+      * of the board is reached
+      * @param row the row index of the starting cell
+      * @param col the col index of the starting cell
+      * @param direction the direction to look in
+      * @return the number of free cells in front of the starting cell
+      * */
+    public int freeRun(int row, int col, Direction direction) {
+        JumpTable table = jumpTable();
+        if (table == null) {
+            return scanFreeRun(row, col, direction);
+        }
+        //the table knows where the obstacles stop the slide, only the
+        //trails in front of that stop have to be looked at, and only if
+        //the line has any
+        int run = table.run(row, col, direction);
+        if (run == 0) {
+            return 0;
+        }
+        boolean alongRow = direction.getRowStep() == 0;
+        if ((alongRow ? rowTrails[row] : colTrails[col]) == 0) {
+            return run;
+        }
+        int start;
+        int blocked;
+        switch (direction) {
+            case RIGHT:
+                start = rowBit(row, col);
+                blocked = SharedBits.nextSetBit(trailRows, start + 1,
+                        start + 1 + run);
+                return blocked - start - 1;
+            case LEFT:
+                start = rowBit(row, col);
+                blocked = SharedBits.prevSetBit(trailRows, start - 1,
+                        start - run);
+                return start - blocked - 1;
+            case DOWN:
+                start = colBit(row, col);
+                blocked = SharedBits.nextSetBit(trailCols, start + 1,
+                        start + 1 + run);
+                return blocked - start - 1;
+            default:
+                start = colBit(row, col);
+                blocked = SharedBits.prevSetBit(trailCols, start - 1,
+                        start - run);
+                return start - blocked - 1;
+        }
+    }
+
+    /** Same as freeRun, but scans the obstacle bitsets instead of using
+      * the jump table
+      * */
+    int scanFreeRun(int row, int col, Direction direction) {
+        int start;
+        int blocked;
+        switch (direction) {
+            case RIGHT:
+                start = rowBit(row, col);
+                blocked = SharedBits.nextSetBit(obstacleRows, trailRows,
+                        start + 1, start + width - col);
+                return blocked - start - 1;
+            case LEFT:
+                start = rowBit(row, col);
+                blocked = SharedBits.prevSetBit(obstacleRows, trailRows,
+                        start - 1, start - col);
+                return start - blocked - 1;
+            case DOWN:
+                start = colBit(row, col);
+                blocked = SharedBits.nextSetBit(obstacleCols, trailCols,
+                        start + 1, start + height - row);
+                return blocked - start - 1;
+            default:
+                start = colBit(row, col);
+                blocked = SharedBits.prevSetBit(obstacleCols, trailCols,
+                        start - 1, start - row);
+                return start - blocked - 1;
+        }
+    }
+
+    /** Leave a trail on length cells, starting at the given cell and
+      * going in the given direction. The first cell is the one the player
+      * leaves, so the trail replaces whatever was there; all other cells
+      * of the run are expected to be free.
+      * @param row the row index of the first cell
+      * @param col the col index of the first cell
+      * @param direction the direction the trail goes in
+      * @param length how many cells get a trail
+      * */
+    public void markTrailRun(int row, int col, Direction direction,
+                             int length) {
+        if (length <= 0) {
+            return;
+        }
+        int rowStep = direction.getRowStep();
+        int colStep = direction.getColStep();
+        int lastRow = row + rowStep * (length - 1);
+        int lastCol = col + colStep * (length - 1);
+        int startBit = rowBit(row, col);
+        if (obstacleRows.get(startBit)) {
+            ownObstacles();
+            obstacleRows.clear(startBit);
+            obstacleCols.clear(colBit(row, col));
+            zobrist ^= Zobrist.key(Zobrist.OBSTACLE, startBit);
+            jumps = null;
+        }
+        //update the hash and the counts for every cell whose trail bit
+        //changes
+        for (int i = 0; i < length; i++) {
+            int cellRow = row + rowStep * i;
+            int cellCol = col + colStep * i;
+            int rowBit = rowBit(cellRow, cellCol);
+            if (!trailRows.get(rowBit)) {
+                zobrist ^= Zobrist.key(Zobrist.TRAIL, rowBit);
+                rowTrails[cellRow]++;
+                colTrails[cellCol]++;
+            }
+        }
+        if (rowStep == 0) {
+            // the run is consecutive in the row-major bitset
+            int first = rowBit(row, Math.min(col, lastCol));
+            trailRows.setRange(first, first + length);
+            for (int i = 0; i < length; i++) {
+                trailCols.set(colBit(row, col + colStep * i));
+            }
+        } else {
+            // the run is consecutive in the column-major bitset
+            int first = colBit(Math.min(row, lastRow), col);
+            trailCols.setRange(first, first + length);
+            for (int i = 0; i < length; i++) {
+                trailRows.set(rowBit(row + rowStep * i, col));
+            }
+        }
+    }
+
+    /** Remove the trail from length cells, starting at the given cell
+      * and going in the given direction
+      * @param row the row index of the first cell
+      * @param col the col index of the first cell
+      * @param direction the direction the trail goes in
+      * @param length how many cells lose their trail
+      * */
+    public void clearTrailRun(int row, int col, Direction direction,
+                              int length) {
+        if (length <= 0) {
+            return;
+        }
+        int rowStep = direction.getRowStep();
+        int colStep = direction.getColStep();
+        int lastRow = row + rowStep * (length - 1);
+        int lastCol = col + colStep * (length - 1);
+        //update the hash and the counts for every cell whose trail bit
+        //changes
+        for (int i = 0; i < length; i++) {
+            int cellRow = row + rowStep * i;
+            int cellCol = col + colStep * i;
+            int rowBit = rowBit(cellRow, cellCol);
+            if (trailRows.get(rowBit)) {
+                zobrist ^= Zobrist.key(Zobrist.TRAIL, rowBit);
+                rowTrails[cellRow]--;
+                colTrails[cellCol]--;
+            }
+        }
+        if (rowStep == 0) {
+            int first = rowBit(row, Math.min(col, lastCol));
+            trailRows.clearRange(first, first + length);
+            for (int i = 0; i < length; i++) {
+                trailCols.clear(colBit(row, col + colStep * i));
+            }
+        } else {
+            int first = colBit(Math.min(row, lastRow), col);
+            trailCols.clearRange(first, first + length);
+            for (int i = 0; i < length; i++) {
+                trailRows.clear(rowBit(row + rowStep * i, col));
+            }
+        }
+    }
+
+    /** Return a copy of this board rotated clockwise once
+      * @return the rotated board
+      * */
+    public Board rotateClockwise() {
+        Board rotated = new Board(width, height);
+        for (int i = 0; i < width; i++) {
+            for (int j = 0; j < height; j++) {
+                rotated.set(i, j, get(height - j - 1, i));
+            }
+        }
+        return rotated;
+    }
+
+    /** Return the characters of a single row of the board
+      * @param row the row index
+      * @return String with one character per cell
+      * */
+    public String rowString(int row) {
+        char[] line = new char[width];
+        for (int col = 0; col < width; col++) {
+            line[col] = get(row, col);
+        }
+        return new String(line);
+    }
+
+    /** Compare two Board objects, returns true if they have the same
+      * dimensions, obstacles and trails. Boards with different hashes
+      * are rejected without looking at any cell.
+      * @param other
+      * @return true if all cells match
+      * */
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Board)) {
+            return false;
+        }
+        Board that = (Board) other;
+        // the column-major bitsets always mirror the row-major ones
+        return this.zobrist == that.zobrist
+                && this.height == that.height
+                && this.width == that.width
+                && this.obstacleRows.sameBits(that.obstacleRows)
+                && this.trailRows.sameBits(that.trailRows);
+    }
+
+    /** @return the Zobrist hash folded to 32 bits */
+    @Override
+    public int hashCode() {
+        return (int) (zobrist ^ (zobrist >>> Integer.SIZE));
+    }
+}
@@ -0,0 +1,21 @@
+/** This interface is implemented by the different ways the GUI can draw
+  * the obstacles and trails of the current level. The player and the
+  * goal are always separate nodes and are not drawn by a renderer.
+  * A renderer is told about every changed cell through cellChanged().
+  * */
+public interface BoardRenderer extends CellListener {
+
+    /** Throw away everything drawn for the previous level and draw the
+      * whole board of the current level
+      * */
+    void reset();
+
+    /** Redraw every cell of the current level */
+    void redrawAll();
+
+    /** Called after the camera of the GUI moved. Renderers that draw
+      * the whole board have nothing to do.
+      * */
+    default void viewportChanged() {
+    }
+}
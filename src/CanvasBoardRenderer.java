@@ -0,0 +1,142 @@
+import javafx.scene.canvas.*;
+import javafx.scene.paint.*;
+
+/** This renderer draws all obstacles and trails onto a single Canvas
+  * that covers the scene, so the number of scene graph nodes does not
+  * depend on the size of the board. When a cell changes, only the area
+  * of that cell is cleared and drawn again.
+  * */
+public class CanvasBoardRenderer implements BoardRenderer {
+
+    // Below this many pixels per cell, cells are drawn as plain squares
+    static final double MIN_DETAIL_SIZE = 4;
+
+    GuiStreamline gui;
+    Canvas canvas;
+    GraphicsContext graphics;
+
+    // Distance between the centers of neighbouring cells
+    double cellWidth;
+    double cellHeight;
+
+    // Size of the square of an obstacle and radius of a trail
+    double squareSize;
+    double trailRadius;
+
+    /** Create a renderer that draws into the level group of the GUI
+      * @param gui the GUI that shows the current level
+      * */
+    public CanvasBoardRenderer(GuiStreamline gui) {
+        this.gui = gui;
+    }
+
+    /**
+     * Replace the canvas and draw the whole board of the new level.
+     */
+    @Override
+    public void reset() {
+        double sceneWidth = gui.mainScene.getWidth();
+        double sceneHeight = gui.mainScene.getHeight();
+        canvas = new Canvas(sceneWidth, sceneHeight);
+        graphics = canvas.getGraphicsContext2D();
+        gui.levelGroup.getChildren().clear();
+        gui.levelGroup.getChildren().add(canvas);
+
+        // Use the same geometry as boardIdxToScenePos(), but keep
+        // fractions of a pixel so that huge boards still fit
+        cellWidth = (sceneWidth - 1) / gui.getBoardWidth();
+        cellHeight = (sceneHeight - 1) / gui.getBoardHeight();
+        double cellSize = Math.min(cellWidth, cellHeight);
+        squareSize = GuiStreamline.SQUARE_FRACTION * cellSize;
+        trailRadius = GuiStreamline.TRAIL_RADIUS_FRACTION * cellSize;
+        redrawAll();
+    }
+
+    /**
+     * Clear the canvas and draw every obstacle and trail again.
+     */
+    @Override
+    public void redrawAll() {
+        Board board = gui.game.currentState.board;
+        graphics.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        for (int row = 0; row < board.getHeight(); row++) {
+            for (int col = 0; col < board.getWidth(); col++) {
+                if (board.get(row, col) != GameState.SPACE_CHAR) {
+                    drawCell(row, col);
+                }
+            }
+        }
+    }
+
+    /**
+     * Clear the area of a single cell and draw its new content. Cells
+     * do not end on whole pixels, so the edge pixels they share with
+     * their neighbours are cleared too, and every cell that touches
+     * the cleared pixels is drawn again, clipped to them.
+     * @param row the board row of the cell
+     * @param col the board column of the cell
+     */
+    @Override
+    public void cellChanged(int row, int col) {
+        double left = Math.floor(col * cellWidth);
+        double top = Math.floor(row * cellHeight);
+        double right = Math.ceil((col + 1) * cellWidth);
+        double bottom = Math.ceil((row + 1) * cellHeight);
+        Board board = gui.game.currentState.board;
+        int firstRow = Math.max(0, (int) (top / cellHeight));
+        int lastRow = Math.min(board.getHeight() - 1,
+            (int) Math.ceil(bottom / cellHeight) - 1);
+        int firstCol = Math.max(0, (int) (left / cellWidth));
+        int lastCol = Math.min(board.getWidth() - 1,
+            (int) Math.ceil(right / cellWidth) - 1);
+
+        graphics.save();
+        graphics.beginPath();
+        graphics.rect(left, top, right - left, bottom - top);
+        graphics.clip();
+        graphics.clearRect(left, top, right - left, bottom - top);
+        for (int i = firstRow; i <= lastRow; i++) {
+            for (int j = firstCol; j <= lastCol; j++) {
+                drawCell(i, j);
+            }
+        }
+        graphics.restore();
+    }
+
+    /**
+     * Draw the obstacle or trail of a cell, if there is one.
+     * @param row the board row of the cell
+     * @param col the board column of the cell
+     */
+    void drawCell(int row, int col) {
+        char cell = gui.game.currentState.board.get(row, col);
+        if (cell == GameState.SPACE_CHAR) {
+            return;
+        }
+        double centerX = (col + GuiStreamline.MIDDLE_OFFSET) * cellWidth;
+        double centerY = (row + GuiStreamline.MIDDLE_OFFSET) * cellHeight;
+        boolean detailed = squareSize >= MIN_DETAIL_SIZE;
+
+        if (cell == GameState.OBSTACLE_CHAR) {
+            graphics.setFill(GuiStreamline.OBSTACLE_COLOR);
+            if (detailed) {
+                double arc = squareSize * RoundedSquare.DEFAULT_ARC_FRACTION;
+                graphics.fillRoundRect(centerX - squareSize / 2,
+                    centerY - squareSize / 2, squareSize, squareSize,
+                    arc, arc);
+            } else {
+                graphics.fillRect(col * cellWidth, row * cellHeight,
+                    cellWidth, cellHeight);
+            }
+        } else {
+            graphics.setFill(GuiStreamline.TRAIL_COLOR);
+            if (detailed) {
+                graphics.fillOval(centerX - trailRadius,
+                    centerY - trailRadius, 2 * trailRadius, 2 * trailRadius);
+            } else {
+                graphics.fillRect(col * cellWidth, row * cellHeight,
+                    cellWidth, cellHeight);
+            }
+        }
+    }
+}
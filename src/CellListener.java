@@ -0,0 +1,11 @@
+/** This interface is implemented by anything that needs to know which
+  * cells of a board changed, for example to redraw only those cells.
+  * */
+public interface CellListener {
+
+    /** Called after the content of a cell changed
+      * @param row the row index of the cell
+      * @param col the col index of the cell
+      * */
+    void cellChanged(int row, int col);
+}
@@ -0,0 +1,191 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/** This class draws a GameState as text, in the same layout as
+  * GameState.toString(), but straight into an Appendable so that no
+  * strings are built for a frame.
+  *
+  * In diff mode only the first frame is drawn in full. Every later frame
+  * moves the terminal cursor with ANSI escape codes to the cells that
+  * changed since the frame before, and rewrites just those cells. The
+  * renderer learns which cells changed as a CellListener, and always
+  * checks the old and new location of the player, so that a frame costs
+  * time and output in proportion to the move, not to the board.
+  * */
+public class ConsoleRenderer implements CellListener {
+
+    static final String ESCAPE = "\033[";
+    static final String CLEAR_SCREEN = "\033[H\033[2J";
+    static final String CLEAR_BELOW = "\033[J";
+
+    // Characters per row of the text layout besides the cells
+    static final int BORDER_COLUMNS = 3;
+
+    // Characters of the board as they were last drawn, row-major,
+    // or null if the next frame has to be drawn in full
+    char[] shown;
+    int shownHeight;
+    int shownWidth;
+    int shownPlayer;
+    int shownGoal;
+
+    // Cells reported by cellChanged since the last frame, row-major
+    int[] dirty = new int[16];
+    int dirtyCount;
+
+    /** Append the whole board in the layout of GameState.toString()
+      * @param state the state to draw
+      * @param out where the text goes
+      * @throws IOException if out throws it
+      * */
+    public static void render(GameState state, Appendable out)
+            throws IOException {
+        int width = state.board.getWidth();
+        int height = state.board.getHeight();
+
+        appendBorder(width, out);
+        for (int i = 0; i < height; i++) {
+            out.append(GameState.SIDEBORDER_CHAR);
+            for (int j = 0; j < width; j++) {
+                out.append(GameState.SPACE_CHAR);
+                out.append(displayChar(state, i, j));
+            }
+            out.append(GameState.SPACE_CHAR);
+            out.append(GameState.SIDEBORDER_CHAR);
+            out.append(GameState.NEWLINE_CHAR);
+        }
+        appendBorder(width, out);
+    }
+
+    static void appendBorder(int width, Appendable out) throws IOException {
+        for (int i = 0; i < 2 * width + BORDER_COLUMNS; i++) {
+            out.append(GameState.TOPBORDER_CHAR);
+        }
+        out.append(GameState.NEWLINE_CHAR);
+    }
+
+    /** @return the character that shows the given cell, the player is
+      *         drawn over the goal and the goal over the board
+      * */
+    static char displayChar(GameState state, int row, int col) {
+        if (row == state.playerRow && col == state.playerCol) {
+            return GameState.CURRENT_CHAR;
+        }
+        if (row == state.goalRow && col == state.goalCol) {
+            return GameState.GOAL_CHAR;
+        }
+        return state.board.get(row, col);
+    }
+
+    /** Draw the next frame. The first frame after reset(), or after the
+      * board changed its size, clears the screen and draws the board in
+      * full, every other frame only rewrites the changed cells. The
+      * cursor is left on the line below the board.
+      * @param state the state to draw
+      * @param out where the text goes, usually a terminal
+      * @throws IOException if out throws it
+      * */
+    public void renderChanges(GameState state, Appendable out)
+            throws IOException {
+        int height = state.board.getHeight();
+        int width = state.board.getWidth();
+        if (shown == null || height != shownHeight || width != shownWidth) {
+            out.append(CLEAR_SCREEN);
+            render(state, out);
+            remember(state);
+            return;
+        }
+
+        //the player and the goal move without any cell changing
+        updateCell(state, shownPlayer, out);
+        updateCell(state, shownGoal, out);
+        updateCell(state, state.playerRow * width + state.playerCol, out);
+        updateCell(state, state.goalRow * width + state.goalCol, out);
+        for (int i = 0; i < dirtyCount; i++) {
+            updateCell(state, dirty[i], out);
+        }
+        dirtyCount = 0;
+        shownPlayer = state.playerRow * width + state.playerCol;
+        shownGoal = state.goalRow * width + state.goalCol;
+
+        //park the cursor below the bottom border and wipe what was
+        //typed there since the last frame
+        moveCursor(height + 2, 0, out);
+        out.append(CLEAR_BELOW);
+    }
+
+    /** Rewrite a single cell if it differs from what is shown */
+    void updateCell(GameState state, int cell, Appendable out)
+            throws IOException {
+        if (cell < 0 || cell >= shown.length) {
+            return;
+        }
+        int row = cell / shownWidth;
+        int col = cell % shownWidth;
+        char c = displayChar(state, row, col);
+        if (shown[cell] != c) {
+            //one line for the top border, two characters per cell
+            moveCursor(row + 1, 2 * col + 2, out);
+            out.append(c);
+            shown[cell] = c;
+        }
+    }
+
+    /** Move the cursor to a zero based line and column of the frame */
+    static void moveCursor(int line, int column, Appendable out)
+            throws IOException {
+        out.append(ESCAPE);
+        appendInt(line + 1, out);
+        out.append(';');
+        appendInt(column + 1, out);
+        out.append('H');
+    }
+
+    /** Append a non-negative number without creating a String */
+    static void appendInt(int value, Appendable out) throws IOException {
+        int divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            out.append((char) ('0' + value / divisor % 10));
+        }
+    }
+
+    /** Record what the full frame of a state shows */
+    void remember(GameState state) {
+        shownHeight = state.board.getHeight();
+        shownWidth = state.board.getWidth();
+        if (shown == null || shown.length != shownHeight * shownWidth) {
+            shown = new char[shownHeight * shownWidth];
+        }
+        for (int i = 0; i < shownHeight; i++) {
+            for (int j = 0; j < shownWidth; j++) {
+                shown[i * shownWidth + j] = displayChar(state, i, j);
+            }
+        }
+        shownPlayer = state.playerRow * shownWidth + state.playerCol;
+        shownGoal = state.goalRow * shownWidth + state.goalCol;
+        dirtyCount = 0;
+    }
+
+    /** Draw the next frame in full, for example after a new level was
+      * loaded without telling the renderer about its cells
+      * */
+    public void reset() {
+        shown = null;
+        dirtyCount = 0;
+    }
+
+    /** Remember a changed cell for the next frame */
+    @Override
+    public void cellChanged(int row, int col) {
+        if (shown == null) {
+            return;
+        }
+        if (dirtyCount == dirty.length) {
+            dirty = Arrays.copyOf(dirty, 2 * dirty.length);
+        }
+        dirty[dirtyCount++] = row * shownWidth + col;
+    }
+}
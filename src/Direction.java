@@ -1,20 +1,26 @@
 
 public enum Direction {
     
-    RIGHT(0), 
-    UP(1), 
-    LEFT(2), 
-    DOWN(3)
+    RIGHT(0, 0, 1), 
+    UP(1, -1, 0), 
+    LEFT(2, 0, -1), 
+    DOWN(3, 1, 0)
     ;
 
     private int rotationCount;
+    private int rowStep;
+    private int colStep;
 
     /**
      * Constructor
      * @param rotationCount see getRotationCount()
+     * @param rowStep see getRowStep()
+     * @param colStep see getColStep()
      */
-    Direction(int rotationCount) {
+    Direction(int rotationCount, int rowStep, int colStep) {
         this.rotationCount = rotationCount;
+        this.rowStep = rowStep;
+        this.colStep = colStep;
     }
 
     /**
@@ -26,4 +32,22 @@ public enum Direction {
     public int getRotationCount() {
         return this.rotationCount;
     }
+
+    /**
+     * Returns how much the row index changes for a single step
+     * in this direction.
+     * @return -1, 0 or 1
+     */
+    public int getRowStep() {
+        return this.rowStep;
+    }
+
+    /**
+     * Returns how much the column index changes for a single step
+     * in this direction.
+     * @return -1, 0 or 1
+     */
+    public int getColStep() {
+        return this.colStep;
+    }
 }
\ No newline at end of file
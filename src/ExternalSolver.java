@@ -0,0 +1,610 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/** This class runs a breadth first search over every state of a level
+  * that can be reached, for levels whose state space does not fit in
+  * memory. Only one layer of the search is expanded at a time, and all
+  * states live in files on disk.
+  *
+  * Every state is packed into a fixed size record of longs: its number
+  * of trails, its hash, the player cell and the row-major trail words.
+  * The children of a layer are collected in memory until memoryLimit is
+  * reached, then sorted and written to a run file. When the layer is
+  * done, all runs are merged with the sorted files of the states seen
+  * so far, which removes the duplicates and the states of earlier layers
+  * in a single sequential pass, and writes both the next layer and the
+  * new files of seen states. Files are read and written through channels
+  * in batches of BATCH_BYTES.
+  *
+  * A move never removes a trail, so a state can only be equal to a seen
+  * state with the same number of trails, and the children of a layer
+  * have at least as many trails as its smallest state. The seen states
+  * are therefore kept in one file per number of trails. A merge only
+  * rewrites the files of the trail counts that occur in the new layer,
+  * and the files of counts below the smallest one of the new layer are
+  * deleted, since no later state can be equal to them.
+  * */
+public class ExternalSolver {
+
+    static final String USAGE =
+        "Usage: \n" +
+        "> java ExternalSolver [-m megabytes] [-d directory] <filename>  " +
+            "- to find the shortest\n" +
+        "       solution of the level stored in the specified file and co" +
+            "unt every state that\n" +
+        "       can be reached, using at most the given memory for new st" +
+            "ates and keeping\n" +
+        "       all states in files in the given directory\n";
+    static final String MEMORY_FLAG = "-m";
+    static final String DIRECTORY_FLAG = "-d";
+    static final int DEFAULT_MEMORY_MB = 64;
+
+    // Size of a single read or write on a channel
+    static final int BATCH_BYTES = 1 << 20;
+
+    // Longs in front of the trail words of a record, the number of
+    // trails comes first so that sorted records are grouped by it
+    static final int COUNT_INDEX = 0;
+    static final int HASH_INDEX = 1;
+    static final int PLAYER_INDEX = 2;
+    static final int HEADER_LONGS = 3;
+
+    /** Reads the records of a sorted file one at a time */
+    static class RunReader {
+        FileChannel channel;
+        ByteBuffer buffer;
+        long[] record;
+        boolean seen;
+
+        /** Open a file and read its first record
+          * @param file the file to read
+          * @param recordLongs the length of a record
+          * @param seen true if the file holds the states seen before
+          * */
+        RunReader(Path file, int recordLongs, boolean seen)
+                throws IOException {
+            this(file, recordLongs, seen,
+                    ByteBuffer.allocateDirect(batchBytes(recordLongs)));
+        }
+
+        /** Open a file and read its first record into a buffer that was
+          * used before
+          * @param buffer holds batchBytes(recordLongs) bytes
+          * */
+        RunReader(Path file, int recordLongs, boolean seen, ByteBuffer buffer)
+                throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            this.buffer = buffer;
+            this.buffer.clear().flip();
+            this.record = new long[recordLongs];
+            this.seen = seen;
+        }
+
+        /** Read the next record into record
+          * @return false if the file has no more records
+          * */
+        boolean next() throws IOException {
+            if (buffer.remaining() < record.length * Long.BYTES) {
+                buffer.compact();
+                while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                    //fill the whole batch
+                }
+                buffer.flip();
+                if (buffer.remaining() < record.length * Long.BYTES) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < record.length; i++) {
+                record[i] = buffer.getLong();
+            }
+            return true;
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /** Writes records to a file */
+    static class RunWriter {
+        FileChannel channel;
+        ByteBuffer buffer;
+        long count;
+
+        RunWriter(Path file, int recordLongs) throws IOException {
+            this(file, ByteBuffer.allocateDirect(batchBytes(recordLongs)));
+        }
+
+        /** Open a file that writes through a buffer that was used before
+          * @param buffer holds batchBytes(recordLongs) bytes
+          * */
+        RunWriter(Path file, ByteBuffer buffer) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.buffer = buffer;
+            this.buffer.clear();
+        }
+
+        /** Add a record to the file
+          * @param records the array that holds the record
+          * @param from the index of its first long
+          * @param length the length of a record
+          * */
+        void write(long[] records, int from, int length) throws IOException {
+            if (buffer.remaining() < length * Long.BYTES) {
+                flush();
+            }
+            for (int i = from; i < from + length; i++) {
+                buffer.putLong(records[i]);
+            }
+            count++;
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void close() throws IOException {
+            flush();
+            channel.close();
+        }
+    }
+
+    // Bytes of new states that are collected before they are written
+    long memoryLimit = (long) DEFAULT_MEMORY_MB << 20;
+
+    // The directory that holds the files of a search
+    File directory = new File(System.getProperty("java.io.tmpdir"));
+
+    // Number of distinct states that can be reached, found by the last
+    // search
+    long statesSeen;
+
+    // Length of the shortest solution found by the last search, or -1
+    int solutionLength;
+
+    // Number of layers of the last search
+    int depth;
+
+    // Bytes written to disk by the last search
+    long bytesWritten;
+
+    // The level being searched
+    GameState level;
+    int words;
+    int recordLongs;
+
+    // New states of the layer being expanded
+    long[] buffer;
+    int buffered;
+    List<Path> runs = new ArrayList<>();
+    Path work;
+
+    // Trail counts that have a file of seen states
+    TreeSet<Long> partitions = new TreeSet<>();
+
+    /** @return the size of a batch that holds whole records */
+    static int batchBytes(int recordLongs) {
+        int recordBytes = recordLongs * Long.BYTES;
+        return Math.max(1, BATCH_BYTES / recordBytes) * recordBytes;
+    }
+
+    /** Search every state that can be reached from the given one
+      * @param start the state to search from, it is not modified
+      * @return the length of the shortest solution, or -1 if the level
+      *         cannot be passed
+      * @throws IOException if the files of the search cannot be written
+      * */
+    public int solve(GameState start) throws IOException {
+        level = new GameState(start);
+        words = level.board.rowMajorWords();
+        recordLongs = HEADER_LONGS + words;
+        //the buffer holds whole records, so that it is full exactly when
+        //buffered reaches its length
+        long bufferLongs = Math.min(Math.max(recordLongs,
+                memoryLimit / Long.BYTES), Integer.MAX_VALUE - 8);
+        buffer = new long[(int) (bufferLongs / recordLongs * recordLongs)];
+        buffered = 0;
+        runs.clear();
+        partitions.clear();
+        statesSeen = 0;
+        solutionLength = start.levelPassed ? 0 : -1;
+        depth = 0;
+        bytesWritten = 0;
+
+        work = Files.createTempDirectory(directory.toPath(), "streamline");
+        try {
+            Path layer = work.resolve("layer0");
+            long[] record = new long[recordLongs];
+            encode(start, record, 0);
+            partitions.add(record[COUNT_INDEX]);
+            for (Path file : new Path[]{seenFile(record[COUNT_INDEX]),
+                    layer}) {
+                RunWriter writer = new RunWriter(file, recordLongs);
+                writer.write(record, 0, recordLongs);
+                writer.close();
+            }
+            bytesWritten += 2 * recordLongs * Long.BYTES;
+            statesSeen = 1;
+
+            long layerSize = 1;
+            while (layerSize > 0) {
+                expand(layer);
+                Path nextLayer = work.resolve("layer" + (depth + 1));
+                layerSize = merge(nextLayer);
+                Files.delete(layer);
+                layer = nextLayer;
+                statesSeen += layerSize;
+                if (layerSize > 0) {
+                    depth++;
+                }
+            }
+        } finally {
+            deleteAll();
+        }
+        return solutionLength;
+    }
+
+    /** Make every move from every state of a layer, and write the new
+      * states to sorted runs
+      * @param layer the file that holds the layer
+      * */
+    void expand(Path layer) throws IOException {
+        GameState state = new GameState(level);
+        RunReader reader = new RunReader(layer, recordLongs, false);
+        try {
+            while (reader.next()) {
+                decode(reader.record, state);
+                if (state.levelPassed) {
+                    //the game ends on the goal
+                    continue;
+                }
+                for (Direction direction : Direction.values()) {
+                    MoveDelta delta = state.move(direction);
+                    if (delta == null) {
+                        continue;
+                    }
+                    if (state.levelPassed && solutionLength < 0) {
+                        solutionLength = depth + 1;
+                    }
+                    if (buffered == buffer.length) {
+                        writeRun();
+                    }
+                    encode(state, buffer, buffered);
+                    buffered += recordLongs;
+                    state.undo(delta);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        if (buffered > 0) {
+            writeRun();
+        }
+    }
+
+    /** Sort the buffered states and write them to a new run, leaving out
+      * duplicates
+      * */
+    void writeRun() throws IOException {
+        int count = buffered / recordLongs;
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i * recordLongs;
+        }
+        sort(order, 0, count - 1);
+
+        Path run = work.resolve("run" + runs.size());
+        RunWriter writer = new RunWriter(run, recordLongs);
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || compare(buffer, order[i - 1], buffer, order[i]) != 0) {
+                writer.write(buffer, order[i], recordLongs);
+            }
+        }
+        writer.close();
+        bytesWritten += writer.count * recordLongs * Long.BYTES;
+        runs.add(run);
+        buffered = 0;
+    }
+
+    /** @return the file of the seen states with the given number of
+      *         trails
+      * */
+    Path seenFile(long trails) {
+        return work.resolve("seen" + trails);
+    }
+
+    /** Merge the runs of a layer with the states seen before that have
+      * the same number of trails, and delete the seen states that no
+      * later state can be equal to. The runs are deleted afterwards.
+      * @param nextLayer receives the new states
+      * @return the number of new states
+      * */
+    long merge(Path nextLayer) throws IOException {
+        PriorityQueue<RunReader> readers = new PriorityQueue<>(
+                Math.max(1, runs.size() + 1),
+                (a, b) -> compare(a.record, 0, b.record, 0));
+        List<RunReader> open = new ArrayList<>();
+        RunWriter layerWriter = new RunWriter(nextLayer, recordLongs);
+        RunWriter seenWriter = null;
+        RunReader seenReader = null;
+        //only one trail count is merged at a time, its files share
+        //these buffers
+        ByteBuffer seenRead = ByteBuffer.allocateDirect(
+                batchBytes(recordLongs));
+        ByteBuffer seenWrite = ByteBuffer.allocateDirect(
+                batchBytes(recordLongs));
+        long partition = -1;
+        long smallest = -1;
+        try {
+            for (Path run : runs) {
+                open.add(new RunReader(run, recordLongs, false));
+            }
+            for (RunReader reader : open) {
+                advance(reader, readers);
+            }
+
+            long[] current = new long[recordLongs];
+            while (!readers.isEmpty()) {
+                long trails = readers.peek().record[COUNT_INDEX];
+                if (trails != partition) {
+                    //the seen states of the previous count are all
+                    //written, since they sort before this one
+                    finishPartition(seenReader, seenWriter, partition);
+                    seenReader = null;
+                    partition = trails;
+                    if (partitions.contains(partition)) {
+                        seenReader = new RunReader(seenFile(partition),
+                                recordLongs, true, seenRead);
+                        open.add(seenReader);
+                        advance(seenReader, readers);
+                    }
+                    seenWriter = new RunWriter(work.resolve("next"),
+                            seenWrite);
+                }
+
+                //take every reader that holds the smallest record
+                RunReader first = readers.poll();
+                System.arraycopy(first.record, 0, current, 0, recordLongs);
+                boolean wasSeen = first.seen;
+                advance(first, readers);
+                while (!readers.isEmpty() && compare(readers.peek().record, 0,
+                        current, 0) == 0) {
+                    RunReader same = readers.poll();
+                    wasSeen |= same.seen;
+                    advance(same, readers);
+                }
+                seenWriter.write(current, 0, recordLongs);
+                if (!wasSeen) {
+                    if (smallest < 0) {
+                        smallest = current[COUNT_INDEX];
+                    }
+                    layerWriter.write(current, 0, recordLongs);
+                }
+            }
+            finishPartition(seenReader, seenWriter, partition);
+            seenWriter = null;
+        } finally {
+            for (RunReader reader : open) {
+                reader.close();
+            }
+            if (seenWriter != null) {
+                seenWriter.close();
+            }
+            layerWriter.close();
+        }
+        bytesWritten += layerWriter.count * recordLongs * Long.BYTES;
+        for (Path run : runs) {
+            Files.delete(run);
+        }
+        runs.clear();
+
+        //every later state has at least as many trails as the smallest
+        //state of the new layer
+        Set<Long> stale = layerWriter.count == 0 ? partitions
+                : partitions.headSet(smallest, false);
+        for (long trails : stale) {
+            Files.delete(seenFile(trails));
+        }
+        stale.clear();
+        return layerWriter.count;
+    }
+
+    /** Replace the seen states of a trail count with the merged ones
+      * @param reader the reader of the old seen states, or null
+      * @param writer the writer of the merged seen states, or null if no
+      *               count was merged yet
+      * @param trails the trail count
+      * */
+    void finishPartition(RunReader reader, RunWriter writer, long trails)
+            throws IOException {
+        if (writer == null) {
+            return;
+        }
+        if (reader != null) {
+            reader.close();
+        }
+        writer.close();
+        bytesWritten += writer.count * recordLongs * Long.BYTES;
+        Files.move(work.resolve("next"), seenFile(trails),
+                StandardCopyOption.REPLACE_EXISTING);
+        partitions.add(trails);
+    }
+
+    /** Move a reader to its next record and queue it again, unless its
+      * file has no more records
+      * */
+    static void advance(RunReader reader, PriorityQueue<RunReader> readers)
+            throws IOException {
+        if (reader.next()) {
+            readers.add(reader);
+        }
+    }
+
+    /** Pack a state into a record
+      * @param state the state to pack
+      * @param records the array that receives the record
+      * @param from the index of the first long of the record
+      * */
+    void encode(GameState state, long[] records, int from) {
+        long trails = 0;
+        for (int word = 0; word < words; word++) {
+            trails += Long.bitCount(state.board.trailRows.word(word));
+        }
+        records[from + COUNT_INDEX] = trails;
+        records[from + HASH_INDEX] = state.zobristHash();
+        records[from + PLAYER_INDEX] = state.playerRow
+                * state.board.getWidth() + state.playerCol;
+        for (int word = 0; word < words; word++) {
+            records[from + HEADER_LONGS + word] =
+                    state.board.trailRows.word(word);
+        }
+    }
+
+    /** Turn a record back into a state, keeping the obstacles and the
+      * jump table of its board
+      * @param record the record to decode
+      * @param state receives the player location and the trails
+      * */
+    void decode(long[] record, GameState state) {
+        for (int word = 0; word < words; word++) {
+            OffHeapSolver.setTrailWord(state.board, level.board, word,
+                    record[HEADER_LONGS + word]);
+        }
+        int player = (int) record[PLAYER_INDEX];
+        int width = state.board.getWidth();
+        state.playerRow = player / width;
+        state.playerCol = player % width;
+        state.levelPassed = state.playerRow == state.goalRow
+                && state.playerCol == state.goalCol;
+    }
+
+    /** Compare two records one long at a time
+      * @return a negative number, zero or a positive number if the first
+      *         record is smaller, equal or larger
+      * */
+    int compare(long[] a, int aFrom, long[] b, int bFrom) {
+        for (int i = 0; i < recordLongs; i++) {
+            int result = Long.compare(a[aFrom + i], b[bFrom + i]);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    /** Sort the records at the given offsets of buffer with a quicksort
+      * that recurses into the smaller half only
+      * */
+    void sort(int[] order, int low, int high) {
+        while (low < high) {
+            int pivot = order[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (compare(buffer, order[i], buffer, pivot) < 0) {
+                    i++;
+                }
+                while (compare(buffer, order[j], buffer, pivot) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = order[i];
+                    order[i] = order[j];
+                    order[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (j - low < high - i) {
+                sort(order, low, j);
+                low = i;
+            } else {
+                sort(order, i, high);
+                high = j;
+            }
+        }
+    }
+
+    /** Remove the files of the last search */
+    void deleteAll() throws IOException {
+        if (work == null) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(work)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(work);
+        work = null;
+    }
+
+    /** Search the level stored in the file given on the command line
+      * and print the result
+      * */
+    public static void main(String[] args) {
+        ExternalSolver solver = new ExternalSolver();
+        int next = 0;
+        try {
+            while (next < args.length - 1) {
+                if (args[next].equals(MEMORY_FLAG)) {
+                    solver.memoryLimit = Long.parseLong(args[next + 1]) << 20;
+                } else if (args[next].equals(DIRECTORY_FLAG)) {
+                    solver.directory = new File(args[next + 1]);
+                } else {
+                    break;
+                }
+                next += 2;
+            }
+        } catch (NumberFormatException e) {
+            System.out.print(USAGE);
+            return;
+        }
+        if (next != args.length - 1 || solver.memoryLimit <= 0) {
+            System.out.print(USAGE);
+            return;
+        }
+        if (!new File(args[next]).isFile()) {
+            System.out.printf("File %s does not exist. Exiting...\n",
+                args[next]);
+            return;
+        }
+        if (!solver.directory.isDirectory()) {
+            System.out.printf("Directory %s does not exist. Exiting...\n",
+                solver.directory);
+            return;
+        }
+        Streamline game = new Streamline(args[next]);
+        if (game.currentState == null) {
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        int moves;
+        try {
+            moves = solver.solve(game.currentState);
+        } catch (IOException e) {
+            System.out.printf("Search failed: %s\n", e);
+            return;
+        }
+        long elapsed = System.nanoTime() - startTime;
+
+        if (moves < 0) {
+            System.out.println("No solution.");
+        } else {
+            System.out.printf("Shortest solution has %d moves\n", moves);
+        }
+        System.out.printf("Reached %d states in %d layers in %.3f ms, " +
+            "wrote %d MB to disk\n", solver.statesSeen, solver.depth,
+            elapsed / 1e6, solver.bytesWritten >> 20);
+    }
+}
@@ -1,5 +1,6 @@
 
 
+import java.io.*;
 import java.util.*;
 
 /** This class defines the grid on which we will play the game
@@ -19,11 +20,8 @@ public class GameState {
     final static char SIDEBORDER_CHAR = '|';
     final static int two = 2;
     final static int fourDirections = 4;
-    final static int up = 1;
-    final static int left = 2;
-    final static int down = 3;
     // This represents a 2D map of the board
-    char[][] board;
+    Board board;
 
     // Location of the player
     int playerRow;
@@ -56,14 +54,9 @@ public class GameState {
         this.goalCol = goalCol;
         this.levelPassed = (playerRow == goalRow)
                 && (playerCol == goalCol);
-        // initialize a board of given parameters
-        this.board = new char[height][width];
-        //fill the board with SPACE_CHAR
-        for (int row = 0; row < height; row++){
-            for(int col = 0; col < width; col++){
-                board[row][col] = SPACE_CHAR;
-            }
-        }
+        // initialize a board of given parameters, every cell of a new
+        // board is a SPACE_CHAR
+        this.board = new Board(height, width);
     }
 
     /** The copy constructor of GameState
@@ -71,12 +64,7 @@ public class GameState {
       */
     public GameState(GameState other) {
 
-        this.board = new char[other.board.length][other.board[0].length];
-        for (int row = 0; row < other.board.length ; row++){
-            for(int col = 0; col < other.board[0].length; col++){
-                board[row][col] = other.board[row][col];
-            }
-        }
+        this.board = new Board(other.board);
         //copy all the instance variables from GameState other
         this.playerRow = other.playerRow;
         this.playerCol = other.playerCol;
@@ -90,44 +78,47 @@ public class GameState {
       * @param count how many obstacles to add
       * */
     void addRandomObstacles(int count) {
-        //If count is a larger number than there are empty spaces available
-        //or count is less than 0, return immediately
+        addRandomObstacles(count, new Random());
+    }
+
+    /** Add count number of random obstacles into this.board, never on
+      * the player or the goal. The free cells are collected once and
+      * count of them are drawn without replacement, so no position is
+      * ever tried twice.
+      * @param count how many obstacles to add
+      * @param random the source of the obstacle positions
+      * */
+    void addRandomObstacles(int count, Random random) {
+        //collect the index of every empty cell that is not
+        //the player or the goal position
+        int width = board.getWidth();
+        int[] free = new int[board.getHeight() * width];
         int counter = 0;
-        for(int i = 0; i < board.length; i++){
-            for(int j = 0; j< board[0].length; j++){
-                if(board[i][j] == SPACE_CHAR);
-                counter = counter + 1;
+        for(int i = 0; i < board.getHeight(); i++){
+            for(int j = 0; j< width; j++){
+                boolean player = i == playerRow && j == playerCol;
+                boolean goal = i == goalRow && j == goalCol;
+                if(board.get(i, j) == SPACE_CHAR && !player && !goal){
+                    free[counter] = i * width + j;
+                    counter = counter + 1;
+                }
             }
         }
-        if(count < 0 || count > (counter-two)){
+        //If count is a larger number than there are empty spaces available
+        //or count is less than 0, return immediately
+        if(count < 0 || count > counter){
             return;
         }
-        //create variables to generate numbers for obstacle position
-        Random row = new Random();
-        Random col = new Random();
 
-        //loop to add desired numbers of obstacles
+        //partial Fisher-Yates shuffle, the first count cells of free
+        //end up as a random sample of all free cells
         for(int i = 0; i < count; i++)
         {
-            int randomRow = row.nextInt(board.length);
-            int randomCol = col.nextInt(board[0].length);
-
-            //if the obstacle position overlaps with player or
-            //goal position, do not add the obstacle,
-            // and do the loop again
-            if(randomRow == playerRow && randomCol == playerCol){
-                count = count + 1;
-            }else if(randomRow == goalRow && randomCol == goalCol){
-                count = count + 1;
-            }else if(board[randomRow][randomCol]
-                    != SPACE_CHAR) {
-                count = count +1;
-            }
-            else
-            {
-                board[randomRow][randomCol]
-                        = OBSTACLE_CHAR;
-            }
+            int pick = i + random.nextInt(counter - i);
+            int cell = free[pick];
+            free[pick] = free[i];
+            free[i] = cell;
+            board.set(cell / width, cell % width, OBSTACLE_CHAR);
         }
     }
 
@@ -138,20 +129,11 @@ public class GameState {
       * */
     void rotateClockwise() {
 
-        //create 2D array rotatedArray
-        int row = board[0].length;
-        int col = board.length;
-        char[][] rotatedArray = new char[row][col];
+        //rotate the board itself
+        int col = board.getHeight();
+        this.board = board.rotateClockwise();
 
-        //loop through the 2D array and copy
-        //elements from the existing board in the correct positions
-        for(int i = 0; i < row; i++){
-            for(int j = 0; j < col; j++){
-                rotatedArray[i][j] = board[col-j-1][i];
-            }
-        }
         //update the instance variables after the rotate
-        this.board = rotatedArray;
         int originalPlayerRow = playerRow;
         this.playerRow = playerCol;
         this.playerCol = col- originalPlayerRow -1;
@@ -169,7 +151,7 @@ public class GameState {
 
         while (true) {
             //check if the player position can move right
-            boolean outOfBounds = !(playerCol + 1 < board[0].length);
+            boolean outOfBounds = !(playerCol + 1 < board.getWidth());
             if (outOfBounds) {
                 return;
             }
@@ -178,21 +160,21 @@ public class GameState {
                     && ((playerCol + 1) == goalCol);
             if (reachGoal) {
                 levelPassed = true;
-                board[playerRow][playerCol] = TRAIL_CHAR;
+                board.set(playerRow, playerCol, TRAIL_CHAR);
                 playerCol = playerCol+1;
                 return;
             }
             //check if the player reaches an obstacle or a
             // trail char with the move
             boolean reachObs =
-                    board[playerRow][playerCol + 1] == OBSTACLE_CHAR;
+                    board.get(playerRow, playerCol + 1) == OBSTACLE_CHAR;
             boolean reachTrial =
-                    board[playerRow][playerCol + 1] == TRAIL_CHAR;
+                    board.get(playerRow, playerCol + 1) == TRAIL_CHAR;
             if (reachObs || reachTrial) {
                 return;
             }
             //add a trail char to the move path
-            board[playerRow][playerCol] = TRAIL_CHAR;
+            board.set(playerRow, playerCol, TRAIL_CHAR);
             //update the player location after the move
             this.playerCol += 1;
 
@@ -200,39 +182,89 @@ public class GameState {
 
     }
 
-    /** Player moves towards the input direction
+    /** Player moves towards the input direction, sliding in place
+      * until stopped by obstacle / trail / edge, and leaves a trail
+      * of dots for all positions that we're walked through
       * @param direction
+      * @return what the move changed, or null if the player did not move
       * */
-    void move(Direction direction) {
-        // if move right, no rotate
-        if (direction == Direction.RIGHT){
-            moveRight();
+    MoveDelta move(Direction direction) {
+        long start = Metrics.start();
+        //find how far the player can slide before being blocked
+        int steps = board.freeRun(playerRow, playerCol, direction);
+
+        //the goal stops the slide early, it can be entered even if
+        //the cell itself is blocked
+        boolean wasPassed = levelPassed;
+        int goalSteps = stepsToGoal(direction);
+        if (goalSteps > 0 && goalSteps <= steps + 1) {
+            steps = goalSteps;
+            levelPassed = true;
         }
-        //if move up, rotate once, move and rotate back
-        if (direction == Direction.UP){
-            rotateClockwise();
-            moveRight();
-            for(int i = 0; i < fourDirections-up; i++) {
-                rotateClockwise();
-            }
+        if (steps == 0) {
+            Metrics.MOVE.recordSince(start);
+            return null;
         }
-        //if move left, rotate twice, move and rotate back
-        if (direction == Direction.LEFT){
-            for(int i = 0; i <left;i++){
-                rotateClockwise();
-            }
-            moveRight();
-            for(int i = 0; i < fourDirections-left;i++) {
-                rotateClockwise();
-            }
+        MoveDelta delta = new MoveDelta(direction, playerRow, playerCol,
+                steps, board.get(playerRow, playerCol), wasPassed);
+        //leave the trail and update the player location after the move
+        board.markTrailRun(playerRow, playerCol, direction, steps);
+        playerRow += direction.getRowStep() * steps;
+        playerCol += direction.getColStep() * steps;
+        Metrics.MOVE.recordSince(start);
+        return delta;
+    }
+
+    /** Revert a move that was made on this GameState. Moves have to be
+      * undone in the reverse order they were made in.
+      * @param delta what the move changed
+      * */
+    void undo(MoveDelta delta) {
+        //remove the trail and restore the cell the player started on
+        board.clearTrailRun(delta.fromRow, delta.fromCol, delta.direction,
+                delta.length);
+        board.set(delta.fromRow, delta.fromCol, delta.fromChar);
+        playerRow = delta.fromRow;
+        playerCol = delta.fromCol;
+        levelPassed = delta.wasPassed;
+    }
+
+    /** Count how many steps in the given direction lead from the player
+      * to the goal
+      * @param direction
+      * @return the number of steps, or -1 if the goal is not ahead
+      * */
+    int stepsToGoal(Direction direction) {
+        boolean onBoard = goalRow >= 0 && goalRow < board.getHeight()
+                && goalCol >= 0 && goalCol < board.getWidth();
+        if (!onBoard) {
+            return -1;
         }
-        //if move down, rotate three times,move and rotate back
-        if (direction == Direction.DOWN){
-            for(int i = 0; i < down;i++){
-                rotateClockwise();
-            }
-            moveRight();
-            for(int i = 0; i < fourDirections-down;i++) {
+        if (direction.getRowStep() == 0 && goalRow == playerRow) {
+            int steps = (goalCol - playerCol) * direction.getColStep();
+            return steps > 0 ? steps : -1;
+        }
+        if (direction.getColStep() == 0 && goalCol == playerCol) {
+            int steps = (goalRow - playerRow) * direction.getRowStep();
+            return steps > 0 ? steps : -1;
+        }
+        return -1;
+    }
+
+    /** Player moves towards the input direction by rotating the board,
+      * moving right and rotating back. This is the original way of moving
+      * and is kept as the reference that move() must agree with.
+      * @param direction
+      * */
+    void moveByRotation(Direction direction) {
+        int rotations = direction.getRotationCount();
+        //rotate so that the direction points right, move and rotate back
+        for(int i = 0; i < rotations; i++){
+            rotateClockwise();
+        }
+        moveRight();
+        if(rotations > 0) {
+            for (int i = 0; i < fourDirections - rotations; i++) {
                 rotateClockwise();
             }
         }
@@ -272,81 +304,58 @@ public class GameState {
             } else if(((GameState)other).board == null || this.board == null){
                 return false;
             }
-            if(this.board.length !=((GameState)other).board.length){
-                return false;
-            }
-            if(this.board[0].length !=((GameState)other).board[0].length){
-                return false;
-            }
-            for(int i = 0; i<this.board.length;i++){
-                for(int j = 0; j< this.board[0].length;j++){
-                    if(this.board[i][j] != ((GameState)other).board[i][j]){
-                        return false;
-                    }
-                }
-            }
-            //exhausted all possibility of mismatch, they're identical
-            return true;
+            //compare the hashes first, then dimensions, obstacles and
+            //trails of the boards
+            return this.board.equals(((GameState)other).board);
         }
         //if other is not a GameState object, return false
         return false;
     }
 
+    /** Return the 64-bit Zobrist hash of the calling GameState object.
+      * The board keeps its part of the hash up to date on every change,
+      * so this takes constant time.
+      * @return 64-bit hash that is consistent with equals
+      * */
+    long zobristHash() {
+        long hash = board == null ? 0 : board.zobrist;
+        hash ^= Zobrist.key(Zobrist.PLAYER,
+                ((long) playerRow << Integer.SIZE) | (playerCol & 0xFFFFFFFFL));
+        hash ^= Zobrist.key(Zobrist.GOAL,
+                ((long) goalRow << Integer.SIZE) | (goalCol & 0xFFFFFFFFL));
+        if (levelPassed) {
+            hash ^= Zobrist.key(Zobrist.PASSED, 0);
+        }
+        return hash;
+    }
+
+    /** Return a hash code that is consistent with equals, so that
+      * GameState objects can be used in hash based collections
+      * @return hash code of the calling GameState object
+      * */
+    @Override
+    public int hashCode() {
+        long hash = zobristHash();
+        return (int) (hash ^ (hash >>> Integer.SIZE));
+    }
+
     /** Return a String representation of the calling GameState object
       * @return String representation of the calling GameState object
       * */
     @Override
     public String toString() {
-        int width = this.board[0].length;
-        int height = this.board.length;
+        int width = this.board.getWidth();
+        int height = this.board.getHeight();
         int bodyWidth = 2 * width + 3;
 
-        //create border String for the printed board
-        char[] border = new char[bodyWidth];
-        for(int i = 0; i< bodyWidth;i++) {
-            border[i] = TOPBORDER_CHAR;
-        }
-        StringBuilder borderString = new StringBuilder();
-        for(int i = 0; i < border.length;i++ ){
-            borderString.append(border[i]);
-        }
-        borderString.append(NEWLINE_CHAR);
-
-        //create body String for the printed board
-        char[][] body = new char[height][bodyWidth];
-        for(int i = 0; i < height; i++){
-            for(int j = 0; j< bodyWidth; j++){
-                if(j==0||j==bodyWidth-1) {
-                    body[i][j] = SIDEBORDER_CHAR;
-                }
-                else if(j%two==1){
-                    body[i][j] = SPACE_CHAR;
-                }
-                else{
-                    body[i][j] = this.board[i][(j - two)/two];
-                    if(i == goalRow && (j-two)/2 == goalCol){
-                        body[i][j] = GOAL_CHAR;
-                    }
-                    if(i == playerRow && (j-two)/two == playerCol){
-                        body[i][j] = CURRENT_CHAR;
-                    }
-                }
-            }
-        }
-
-        StringBuilder bodyString = new StringBuilder();
-        for(int i = 0; i < height; i++) {
-            for (int j = 0; j < bodyWidth; j++) {
-                bodyString.append(body[i][j]);
-            }
-            bodyString.append(NEWLINE_CHAR);
+        //size the builder for the whole board, borders and newlines
+        StringBuilder s = new StringBuilder((bodyWidth + 1) * (height + two));
+        try {
+            ConsoleRenderer.render(this, s);
+        } catch (IOException e) {
+            //a StringBuilder never throws
+            throw new UncheckedIOException(e);
         }
-        //put everything together
-        StringBuilder s = new StringBuilder();
-        s.append(borderString);
-        s.append(bodyString);
-        s.append(borderString);
-
         return s.toString();
     }
 
@@ -5,13 +5,21 @@ import javafx.scene.shape.*;
 import javafx.stage.Stage;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javafx.animation.*;
 import javafx.animation.PathTransition.*;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.event.EventHandler;
 import javafx.event.ActionEvent;
 import javafx.scene.Group;
@@ -41,7 +49,19 @@ public class GuiStreamline extends Application {
         "> java GuiStreamline <directory>   - to start a game by reading a" +
             "ll game states from files in\n" +
         "                                     the specified directory and " +
-            "playing them in order\n";
+            "playing them in order\n" +
+        "> java GuiStreamline <packfile>    - to start a game by playing a" +
+            "ll levels of the specified\n" +
+        "                                     level pack in order\n" +
+        "Add --renderer=canvas to draw the board on a single canvas, which" +
+            " is much faster\n" +
+        "for very large boards, or --renderer=viewport to scroll around lar" +
+            "ge boards with a\n" +
+        "camera that follows the player.\n";
+    static final String RENDERER_PARAMETER = "renderer";
+    static final String CANVAS_RENDERER = "canvas";
+    static final String VIEWPORT_RENDERER = "viewport";
+    static final String NAMED_PARAMETER_PREFIX = "--";
 
     static final Color TRAIL_COLOR = Color.LIGHTCORAL;
     static final Color GOAL_COLOR = Color.MEDIUMAQUAMARINE;
@@ -54,16 +74,41 @@ public class GuiStreamline extends Application {
     static final double SQUARE_FRACTION = 0.8;
     static final int PLAYER_MOVE = 100;
 
+    // With the viewport renderer, boards whose squares would be smaller
+    // than MIN_SQUARE_SIZE are shown with squares of CAMERA_SQUARE_SIZE,
+    // and a camera follows the player around the board
+    static final double MIN_SQUARE_SIZE = 12;
+    static final double CAMERA_SQUARE_SIZE = 24;
+
+    // Number of upcoming levels that are loaded in the background
+    static final int PREFETCH_COUNT = 3;
+
+    // Number of moves that page up jumps back in the history
+    static final int HISTORY_STEP = 10;
+
     Scene mainScene;
     Group levelGroup;                   // For obstacles and trails
     Group rootGroup;                    // Parent group for everything else
     Player playerRect;                  // GUI representation of the player
     RoundedSquare goalRect;             // GUI representation of the goal
 
-    Shape[][] grid;                     // Same dimensions as the game board
+    BoardRenderer renderer;             // Draws obstacles and trails
+
+    boolean cameraEnabled;              // true with the viewport renderer
+    boolean cameraActive;               // true if this level needs it
+    double cameraX;                     // Scene position of the top left
+    double cameraY;                     // corner of the visible area
 
     Streamline game;                    // The current level
-    ArrayList<Streamline> nextGames;    // Future levels
+    List<File> levelFiles;              // All levels, loaded when needed
+    LevelPack levelPack;                // or all levels in a single pack
+    int levelCount;                     // Number of levels to play
+    int levelIndex;                     // Index of the current level
+
+    // Loads upcoming levels on a background thread, at most
+    // PREFETCH_COUNT of them are kept in prefetched at any time
+    ExecutorService prefetcher;
+    Map<Integer, Future<Streamline>> prefetched;
 
     MyKeyHandler myKeyHandler;          // for keyboard input
 
@@ -74,7 +119,7 @@ public class GuiStreamline extends Application {
      */
 
     public int getBoardWidth() {
-        return game.currentState.board[0].length;
+        return game.currentState.board.getWidth();
     }
 
     /**
@@ -82,15 +127,27 @@ public class GuiStreamline extends Application {
      * @return the height of the board for the current level
      */
     public int getBoardHeight() {
-        return game.currentState.board.length;
+        return game.currentState.board.getHeight();
     }
 
     /**
      * Find a size for a single square of the board that will fit nicely
-     * in the current scene size
+     * in the current scene size, or the fixed size used by the camera
      * @return the size of a single square
      */
     public double getSquareSize() {
+        if (cameraActive) {
+            return CAMERA_SQUARE_SIZE;
+        }
+        return getFittedSquareSize();
+    }
+
+    /**
+     * Find a size for a single square so that the whole board fits
+     * in the current scene size
+     * @return the size of a single square
+     */
+    public double getFittedSquareSize() {
         double sceneWidth = mainScene.getWidth();
         double sceneHeight = mainScene.getHeight();
         double boardWidth = this.getBoardWidth();
@@ -111,46 +168,9 @@ public class GuiStreamline extends Application {
      * when a new level loads.
      */
     public void resetGrid() {
-        levelGroup.getChildren().clear();
-        this.grid = new Shape[getBoardHeight()][getBoardWidth()];
-        for(int i = 0; i < grid.length;i++)
-        {
-            for (int j = 0; j < grid[0].length; j++)
-            {
-                double[] center = boardIdxToScenePos(j,i);
-
-                if (game.currentState.board[i][j]
-                        == GameState.OBSTACLE_CHAR)
-                {
-                    grid[i][j] = new RoundedSquare
-                            (SQUARE_FRACTION * getSquareSize());
-                    grid[i][j].setFill(OBSTACLE_COLOR);
-
-                    ((RoundedSquare)(grid[i][j])).setCenterX(center[0]);
-                    ((RoundedSquare)(grid[i][j])).setCenterY(center[1]);
-                }
-                else if(game.currentState.board[i][j]
-                        == GameState.TRAIL_CHAR)
-                {
-                    grid[i][j] = new Circle
-                            (TRAIL_RADIUS_FRACTION * getSquareSize());
-                    grid[i][j].setFill(TRAIL_COLOR);
-
-                    ((Circle)(grid[i][j])).setCenterX(center[0]);
-                    ((Circle)(grid[i][j])).setCenterY(center[1]);
-                }
-                else{
-                    grid[i][j] = new Circle
-                            (TRAIL_RADIUS_FRACTION * getSquareSize());
-                    grid[i][j].setFill(Color.TRANSPARENT);
-
-                    ((Circle)(grid[i][j])).setCenterX(center[0]);
-                    ((Circle)(grid[i][j])).setCenterY(center[1]);
-                }
-                levelGroup.getChildren().add(grid[i][j]);
-
-            }
-        }
+        long start = Metrics.start();
+        renderer.reset();
+        Metrics.RESET_GRID.recordSince(start);
     }
 
     /**
@@ -158,24 +178,7 @@ public class GuiStreamline extends Application {
      * depending on if that board position equals TRAIL_CHAR.
      */
     public void updateTrailColors() {
-        for(int i = 0; i < grid.length;i++)
-        {
-            for(int j = 0; j < grid[0].length; j++)
-            {
-                if(game.currentState.board[i][j]
-                        == GameState.TRAIL_CHAR)
-                {
-                    grid[i][j].setFill(TRAIL_COLOR);
-                }
-
-                else if(game.currentState.board[i][j]
-                        == GameState.SPACE_CHAR)
-                {
-                    grid[i][j].setFill(Color.TRANSPARENT);
-                }
-            }
-        }
-
+        renderer.redrawAll();
     }
 
     /**
@@ -187,6 +190,12 @@ public class GuiStreamline extends Application {
      */
     static final double MIDDLE_OFFSET = 0.5;
     public double[] boardIdxToScenePos (int boardCol, int boardRow) {
+        // With the camera the board is larger than the scene, the
+        // camera then shifts everything so the player stays visible
+        if (cameraActive) {
+            return new double[]{(boardCol + MIDDLE_OFFSET) * CAMERA_SQUARE_SIZE,
+                (boardRow + MIDDLE_OFFSET) * CAMERA_SQUARE_SIZE};
+        }
         double sceneX = ((boardCol + MIDDLE_OFFSET) *
             (mainScene.getWidth() - 1)) / getBoardWidth();
         double sceneY = ((boardRow + MIDDLE_OFFSET) *
@@ -197,7 +206,8 @@ public class GuiStreamline extends Application {
     /**
      * To be called when the user moved the player and the GUI needs to be
      * updated to show the new position.
-     * Makes trail markers visible and changes player position.
+     * Changes player position, the trail markers have already been
+     * updated by the renderer.
      * @param fromCol player old position X
      * @param fromRow player old position Y
      * @param toCol player new position X
@@ -207,17 +217,18 @@ public class GuiStreamline extends Application {
     public void onPlayerMoved(int fromCol, int fromRow, int toCol, int toRow,
         boolean isUndo)
     {
+        long start = Metrics.start();
 
         // If the position is the same, just return
         if (fromCol == toCol && fromRow == toRow) {
+            Metrics.PLAYER_MOVED.recordSince(start);
             return;
         }
 
         double[] playerPos = boardIdxToScenePos(toCol,toRow);
         playerRect.setCenterX(playerPos[0]);
         playerRect.setCenterY(playerPos[1]);
-
-        updateTrailColors();
+        moveCamera(toCol, toRow);
 
         double[] prevPlayerPos = boardIdxToScenePos(fromCol,fromRow);
 
@@ -235,8 +246,7 @@ public class GuiStreamline extends Application {
 
 
         /*if(fromCol == toCol && fromRow > toRow && toRow>0){
-            if(game.currentState.board[toRow-1][toCol]
-                    == GameState.OBSTACLE_CHAR)
+            if(game.currentState.board.isObstacle(toRow-1, toCol))
             {
                 double[] OB1 = boardIdxToScenePos(toCol,toRow-1);
                 RoundedSquare ob1 = (RoundedSquare)grid[toRow-1][toCol];
@@ -251,6 +261,8 @@ public class GuiStreamline extends Application {
             }
         }*/
 
+        //switching to the next level is not part of the move
+        Metrics.PLAYER_MOVED.recordSince(start);
         if(game.currentState.levelPassed)
         {
             onLevelFinished();
@@ -267,7 +279,11 @@ public class GuiStreamline extends Application {
             return;
         }
 
-        int last = game.previousStates.size()-1;
+        int last = game.history.size()-1;
+        // The history may have forgotten the move once it is made, so
+        // the player location before it is kept here
+        int fromCol = game.currentState.playerCol;
+        int fromRow = game.currentState.playerRow;
         switch (keyCode) {
             case DOWN:
                 game.recordAndMove(Direction.DOWN);
@@ -282,18 +298,24 @@ public class GuiStreamline extends Application {
                 game.recordAndMove(Direction.RIGHT);
                 break;
             case U:
-                if(last >= 0)
+                if(game.history.last() != null)
                 {
                     onPlayerMoved(game.currentState.playerCol,
                             game.currentState.playerRow,
-                            game.previousStates.get(last).playerCol,
-                            game.previousStates.get(last).playerRow, true);
+                            game.history.last().fromCol,
+                            game.history.last().fromRow, true);
                     game.undo();
-                    updateTrailColors();
                 }
                 break;
+            case PAGE_UP:
+                jumpBack(game.history.size() - HISTORY_STEP);
+                return;
+            case HOME:
+                jumpBack(game.history.oldest());
+                return;
             case O:
-                game.saveToFile();
+                game.saveToFile().thenAcceptAsync(System.out::println,
+                        Platform::runLater);
                 break;
             case Q:
                 onLevelFinished();
@@ -301,24 +323,38 @@ public class GuiStreamline extends Application {
             default:
                 System.out.println("Possible commands:\n w - up\n " +
                     "a - left\n s - down\n d - right\n u - undo\n " +
-                    "q - quit level");
+                    "page up - undo " + HISTORY_STEP + " moves\n " +
+                    "home - undo all moves\n q - quit level");
                 break;
         }
         // Call onPlayerMoved() to update the GUI to reflect the player's
         // movement (if any)
-        if(game.previousStates.size() == last+1){
+        if(game.history.size() == last+1){
             return;
         }
-        last = game.previousStates.size()-1;
+        last = game.history.size()-1;
         if(keyCode == KeyCode.DOWN|| keyCode == KeyCode.UP
                 || keyCode == KeyCode.RIGHT||keyCode == KeyCode.LEFT){
-                onPlayerMoved(game.previousStates.get(last).playerCol,
-                        game.previousStates.get(last).playerRow,
+                onPlayerMoved(fromCol, fromRow,
                         game.currentState.playerCol,
                         game.currentState.playerRow, false);
         }
     }
 
+    /**
+     * Jump back to the state after the given number of moves and redraw
+     * the whole board, since many cells may have changed at once
+     * @param move the number of moves to keep
+     */
+    void jumpBack(int move) {
+        int fromCol = game.currentState.playerCol;
+        int fromRow = game.currentState.playerRow;
+        game.goTo(move);
+        updateTrailColors();
+        onPlayerMoved(fromCol, fromRow, game.currentState.playerCol,
+                game.currentState.playerRow, true);
+    }
+
     /**
      * This nested class handles keyboard input and calls handleKeyCode()
      */
@@ -334,7 +370,11 @@ public class GuiStreamline extends Application {
      * redone to reflect a new level
      */
     public void onLevelLoaded() {
+        cameraActive = cameraEnabled
+            && getFittedSquareSize() < MIN_SQUARE_SIZE;
         resetGrid();
+        // From now on, only the cells changed by a move are redrawn
+        game.setCellListener(renderer);
 
         double squareSize = getSquareSize() * SQUARE_FRACTION;
 
@@ -353,6 +393,38 @@ public class GuiStreamline extends Application {
         goalRect.setCenterX(goalPos[0]);
         goalRect.setCenterY(goalPos[1]);
 
+        moveCamera(game.currentState.playerCol, game.currentState.playerRow);
+    }
+
+    /**
+     * Center the camera on the given board position, without showing
+     * anything beyond the edges of the board. The camera shifts the
+     * layout of the level, the goal and the player, which leaves their
+     * translation free for animations.
+     * @param boardCol the board column to center on
+     * @param boardRow the board row to center on
+     */
+    public void moveCamera(int boardCol, int boardRow) {
+        cameraX = 0;
+        cameraY = 0;
+        if (cameraActive) {
+            double sceneWidth = mainScene.getWidth();
+            double sceneHeight = mainScene.getHeight();
+            double[] center = boardIdxToScenePos(boardCol, boardRow);
+            double maxX = getBoardWidth() * CAMERA_SQUARE_SIZE - sceneWidth;
+            double maxY = getBoardHeight() * CAMERA_SQUARE_SIZE - sceneHeight;
+            cameraX = Math.max(0,
+                Math.min(center[0] - sceneWidth / 2, maxX));
+            cameraY = Math.max(0,
+                Math.min(center[1] - sceneHeight / 2, maxY));
+        }
+        levelGroup.setLayoutX(-cameraX);
+        levelGroup.setLayoutY(-cameraY);
+        goalRect.setLayoutX(-cameraX);
+        goalRect.setLayoutY(-cameraY);
+        playerRect.setLayoutX(-cameraX);
+        playerRect.setLayoutY(-cameraY);
+        renderer.viewportChanged();
     }
 
     /**
@@ -373,6 +445,8 @@ public class GuiStreamline extends Application {
             goalRect.getHeight()
         );
         animatedGoal.setFill(goalRect.getFill());
+        animatedGoal.setLayoutX(goalRect.getLayoutX());
+        animatedGoal.setLayoutY(goalRect.getLayoutY());
 
         // Add the clone to the scene
         List<Node> children = rootGroup.getChildren();
@@ -399,13 +473,14 @@ public class GuiStreamline extends Application {
 
 
             //check if there is no next game and if so, quit
-            if(nextGames.size() <= 1){
+            if(levelIndex + 1 >= levelCount){
                 System.exit(0);
             }
-            //update the instances variables game and nextGames
-            //to switch to the next level
-            nextGames.remove(0);
-            game = nextGames.get(0);
+            //update the instances variables game and levelIndex
+            //to switch to the next level, it has usually been
+            //prefetched by now
+            levelIndex++;
+            game = takeLevel(levelIndex);
 
             // Update UI to the next level, but it won't be visible yet
             // because it's covered by the animated cloned goal
@@ -434,14 +509,19 @@ public class GuiStreamline extends Application {
     }
 
     /**
-     * Performs file IO to populate game and nextGames using filenames from
-     * command line arguments.
+     * Finds the level files named by the command line arguments and
+     * loads the first one into game. The other levels are only loaded
+     * shortly before they are played.
      */
     public void loadLevels() {
         game = null;
-        nextGames = new ArrayList<Streamline>();
+        levelFiles = new ArrayList<File>();
+        levelPack = null;
+        levelCount = 0;
+        levelIndex = 0;
+        prefetched = new HashMap<>();
 
-        List<String> args = getParameters().getRaw();
+        List<String> args = getParameters().getUnnamed();
         if (args.size() == 0) {
             System.out.println("Starting a default-sized random game...");
             game = new Streamline();
@@ -457,33 +537,98 @@ public class GuiStreamline extends Application {
             return;
         }
 
-        // if is not a directory, read from the file and start the game
-        if (!file.isDirectory()) {
-            System.out.printf("Loading single game from file %s...\n",
-                args.get(0));
-            game = new Streamline(args.get(0));
-            return;
+        // if is not a directory, play the levels of a pack or read
+        // from the file and start the game
+        if (!file.isDirectory() && LevelPack.isPack(file)) {
+            try {
+                levelPack = new LevelPack(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+            levelCount = levelPack.size();
+            if (levelCount == 0) {
+                System.out.printf("Pack %s has no levels. Exiting...",
+                    args.get(0));
+                return;
+            }
+        } else if (!file.isDirectory()) {
+            levelFiles.add(file);
+            levelCount = 1;
+        } else {
+            // file is a directory, only remember the files in it
+            File[] subfiles = file.listFiles();
+            Arrays.sort(subfiles);
+            for (File subfile : subfiles) {
+                // in case there's a directory in there, skip
+                if (!subfile.isDirectory()) {
+                    levelFiles.add(subfile);
+                }
+            }
+            levelCount = levelFiles.size();
+            if (levelCount == 0) {
+                System.out.printf("Directory %s has no levels. Exiting...",
+                    args.get(0));
+                return;
+            }
         }
 
-        // file is a directory, walk the directory and load from all files
-        File[] subfiles = file.listFiles();
-        Arrays.sort(subfiles);
-        for (int i=0; i<subfiles.length; i++) {
-            File subfile = subfiles[i];
+        prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "level-prefetcher");
+            thread.setDaemon(true);
+            return thread;
+        });
 
-            // in case there's a directory in there, skip
-            if (subfile.isDirectory()) continue;
+        // Switch to the first level
+        game = takeLevel(0);
+    }
 
-            // assume all files are properly formatted games,
-            // create a new game for each file, and add it to nextGames
-            System.out.printf("Loading game %d/%d from file %s...\n",
-                i+1, subfiles.length, subfile.toString());
-            nextGames.add(new Streamline(subfile.toString()));
+    /**
+     * Reads a single level from the pack or from its file.
+     * @param index the index of the level
+     * @return the loaded level
+     */
+    Streamline loadLevel(int index) {
+        if (levelPack != null) {
+            return new Streamline(levelPack.getLevel(index));
         }
+        // assume all files are properly formatted games
+        System.out.printf("Loading game %d/%d from file %s...\n",
+            index + 1, levelCount, levelFiles.get(index));
+        return new Streamline(levelFiles.get(index).toString());
+    }
 
-        // Switch to the first level
-        game = nextGames.get(0);
-        nextGames.remove(0);
+    /**
+     * Returns the level with the given index, waiting for the prefetcher
+     * if it is still loading it, and starts prefetching the levels that
+     * come after it.
+     * @param index the index of the level
+     * @return the loaded level
+     */
+    Streamline takeLevel(int index) {
+        Streamline level = null;
+        Future<Streamline> future = prefetched.remove(index);
+        if (future != null) {
+            try {
+                level = future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+        if (level == null) {
+            level = loadLevel(index);
+        }
+
+        // Queue the next few levels that are not loaded yet
+        int last = Math.min(index + PREFETCH_COUNT, levelCount - 1);
+        for (int next = index + 1; next <= last; next++) {
+            if (!prefetched.containsKey(next)) {
+                final int nextIndex = next;
+                prefetched.put(next,
+                    prefetcher.submit(() -> loadLevel(nextIndex)));
+            }
+        }
+        return level;
     }
 
     /**
@@ -492,9 +637,21 @@ public class GuiStreamline extends Application {
      */
     @Override
     public void start(Stage primaryStage) throws Exception {
-        // Populate game and nextGames
+        // Populate game and levelFiles
         loadLevels();
 
+        // Pick the renderer for obstacles and trails
+        String rendererName = getParameters().getNamed()
+            .get(RENDERER_PARAMETER);
+        if (CANVAS_RENDERER.equals(rendererName)) {
+            renderer = new CanvasBoardRenderer(this);
+        } else if (VIEWPORT_RENDERER.equals(rendererName)) {
+            renderer = new ViewportBoardRenderer(this);
+            cameraEnabled = true;
+        } else {
+            renderer = new ShapeBoardRenderer(this);
+        }
+
         // Initialize the scene and our groups
         rootGroup = new Group();
         mainScene = new Scene(rootGroup, SCENE_WIDTH, SCENE_HEIGHT,
@@ -527,7 +684,13 @@ public class GuiStreamline extends Application {
      * start() above being called.
      */
     public static void main(String[] args) {
-        if (args.length != 0 && args.length != 1) {
+        int unnamed = 0;
+        for (String arg : args) {
+            if (!arg.startsWith(NAMED_PARAMETER_PREFIX)) {
+                unnamed++;
+            }
+        }
+        if (unnamed != 0 && unnamed != 1) {
             System.out.print(USAGE);
             return;
         }
@@ -0,0 +1,172 @@
+import java.util.*;
+
+/** This class keeps the moves made on a level so that they can be undone
+  * one at a time, and so that the state after any earlier move can be
+  * restored directly. Every move is kept as a MoveDelta, and every
+  * keyframeInterval moves a full copy of the state is kept as a keyframe.
+  * The state after a move is rebuilt from the closest keyframe before it
+  * by making the moves in between again, so a seek costs O(log n) to find
+  * the keyframe plus at most keyframeInterval moves.
+  *
+  * The history stays within a memory budget. When it grows beyond the
+  * budget, keyframes are thinned out first, by doubling the interval,
+  * and once the interval reaches MAX_KEYFRAME_INTERVAL the oldest moves
+  * are forgotten.
+  * */
+public class History {
+
+    static final long DEFAULT_BUDGET = 64L << 20;
+    static final int DEFAULT_KEYFRAME_INTERVAL = 64;
+    static final int MAX_KEYFRAME_INTERVAL = 4096;
+
+    // Rough heap size of a MoveDelta and the reference to it
+    static final long DELTA_BYTES = 48;
+
+    // Rough heap size of a GameState and its Board besides the arrays
+    static final long STATE_BYTES = 256;
+
+    // Moves since the oldest state that can still be restored
+    List<MoveDelta> deltas = new ArrayList<>();
+
+    // Number of moves made before the oldest state that can be restored
+    int base;
+
+    // Copies of the state after the given number of moves, there is
+    // always one at base
+    TreeMap<Integer, GameState> keyframes = new TreeMap<>();
+
+    int keyframeInterval = DEFAULT_KEYFRAME_INTERVAL;
+    long budget;
+
+    // Estimated heap size of a single keyframe
+    long keyframeBytes;
+
+    /** Start a history at the given state
+      * @param initial the state before the first move, it is copied
+      * @param budget the number of bytes the history may use
+      * */
+    public History(GameState initial, long budget) {
+        this.budget = budget;
+        Board board = initial.board;
+        keyframeBytes = STATE_BYTES + 4L * Long.BYTES * Math.max(
+                board.rowMajorWords(), board.colWords * board.getWidth())
+            + (long) Integer.BYTES * (board.getHeight() + board.getWidth());
+        keyframes.put(0, new GameState(initial));
+    }
+
+    /** Start a history at the given state with the default budget
+      * @param initial the state before the first move, it is copied
+      * */
+    public History(GameState initial) {
+        this(initial, DEFAULT_BUDGET);
+    }
+
+    /** @return the number of moves made, including forgotten ones */
+    public int size() {
+        return base + deltas.size();
+    }
+
+    /** @return the number of moves before the oldest state that can be
+      *         restored
+      * */
+    public int oldest() {
+        return base;
+    }
+
+    /** @return the most recent move, or null if there is none */
+    public MoveDelta last() {
+        return deltas.isEmpty() ? null : deltas.get(deltas.size() - 1);
+    }
+
+    /** Record a move
+      * @param delta what the move changed
+      * @param after the state after the move, copied if it becomes a
+      *              keyframe
+      * */
+    public void push(MoveDelta delta, GameState after) {
+        deltas.add(delta);
+        if (size() % keyframeInterval == 0) {
+            keyframes.put(size(), new GameState(after));
+        }
+        if (memoryUsed() > budget) {
+            shrink();
+        }
+    }
+
+    /** Forget the most recent move, so that it can be undone
+      * @return the move, or null if there is none left
+      * */
+    public MoveDelta pop() {
+        if (deltas.isEmpty()) {
+            return null;
+        }
+        MoveDelta delta = deltas.remove(deltas.size() - 1);
+        keyframes.tailMap(size(), false).clear();
+        return delta;
+    }
+
+    /** Rebuild the state after the given number of moves
+      * @param move the number of moves, from oldest() to size()
+      * @return a new GameState
+      * @throws IndexOutOfBoundsException if the state was forgotten or
+      *         the moves were not made yet
+      * */
+    public GameState stateAt(int move) {
+        if (move < base || move > size()) {
+            throw new IndexOutOfBoundsException("move " + move
+                    + " is not in [" + base + ", " + size() + "]");
+        }
+        Map.Entry<Integer, GameState> keyframe = keyframes.floorEntry(move);
+        GameState state = new GameState(keyframe.getValue());
+        //moves are deterministic, so making them again gives the same state
+        for (int i = keyframe.getKey(); i < move; i++) {
+            state.move(deltas.get(i - base).direction);
+        }
+        return state;
+    }
+
+    /** Forget every move after the given one
+      * @param move the number of moves to keep, from oldest() to size()
+      * */
+    public void truncate(int move) {
+        if (move < base || move > size()) {
+            throw new IndexOutOfBoundsException("move " + move
+                    + " is not in [" + base + ", " + size() + "]");
+        }
+        deltas.subList(move - base, deltas.size()).clear();
+        keyframes.tailMap(move, false).clear();
+    }
+
+    /** @return the estimated number of bytes used by the history */
+    public long memoryUsed() {
+        return deltas.size() * DELTA_BYTES
+            + keyframes.size() * keyframeBytes;
+    }
+
+    /** Bring the history back within its budget */
+    void shrink() {
+        //first keep fewer keyframes, they cost the most
+        while (memoryUsed() > budget
+                && keyframeInterval < MAX_KEYFRAME_INTERVAL
+                && keyframes.size() > 1) {
+            keyframeInterval *= 2;
+            keyframes.keySet().removeIf(
+                move -> move != base && move % keyframeInterval != 0);
+        }
+        if (memoryUsed() <= budget) {
+            return;
+        }
+        //then forget the oldest quarter of the moves, starting again
+        //at a keyframe that is built there if there is none
+        if (deltas.isEmpty()) {
+            return;
+        }
+        int newBase = base + Math.max(1, deltas.size() / 4);
+        if (!keyframes.containsKey(newBase)) {
+            keyframes.put(newBase, stateAt(newBase));
+        }
+        deltas.subList(0, newBase - base).clear();
+        keyframes.headMap(newBase, false).clear();
+        base = newBase;
+    }
+}
@@ -0,0 +1,305 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+/** This class keeps the progress of a game on disk as it is made, so
+  * that the game can be restored after a crash. It consists of a
+  * snapshot, which is a save in the format of SaveCodec, and a journal
+  * file next to it that holds every command given since the snapshot,
+  * one byte per command, in the format read by Replay.
+  *
+  * Commands are appended to a buffer in memory and written by a single
+  * background thread. While it waits for one batch to reach the disk,
+  * new commands collect in the buffer and are written and synced as the
+  * next batch, so a burst of moves costs a single fsync (group commit).
+  *
+  * Once the journal holds compactLimit commands it is folded into a new
+  * snapshot. The journal starts with a 12 byte header (MAGIC and the
+  * CRC32 of the snapshot it belongs to, and 0), so a journal that
+  * outlived its snapshot because of a crash during compaction is
+  * ignored by recover.
+  *
+  * The writer thread cannot report what goes wrong, so the first
+  * IOException it meets is kept and thrown by the next sync or close.
+  * */
+public class Journal implements Closeable {
+
+    static final int MAGIC = 0x534C4A4E;     // "SLJN"
+    static final int HEADER_BYTES = 12;
+    static final String SUFFIX = ".journal";
+    static final int DEFAULT_COMPACT_LIMIT = 1 << 16;
+    static final int INITIAL_PENDING = 256;
+
+    // The game that is journaled and the snapshot it is folded into
+    Streamline game;
+    File snapshot;
+    File journal;
+
+    // Commands appended since the last compaction that lead to one
+    int compactLimit = DEFAULT_COMPACT_LIMIT;
+
+    // Commands that were appended but not taken by the writer yet,
+    // guarded by this
+    byte[] pending = new byte[INITIAL_PENDING];
+    int pendingCount;
+    long appended;
+    long taken;
+    boolean flushQueued;
+
+    // Commands before boundary belong to the journal that is being
+    // compacted, and are not written to the new one
+    boolean compacting;
+    long boundary;
+    int sinceCompaction;
+
+    // What went wrong on the writer thread since the last sync, or null
+    IOException failure;
+
+    // Only used by the writer thread
+    FileChannel channel;
+    ByteBuffer batch = ByteBuffer.allocateDirect(INITIAL_PENDING);
+
+    ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "journal-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Start journaling a game. A snapshot of the game is written right
+      * away, together with an empty journal.
+      * @param game the game to journal
+      * @param snapshot the file that holds the snapshot, the journal is
+      *        kept in the same file name with SUFFIX
+      * @throws IOException if the files cannot be written
+      * */
+    public Journal(Streamline game, File snapshot) throws IOException {
+        this.game = game;
+        this.snapshot = snapshot;
+        this.journal = journalFile(snapshot);
+        ByteBuffer save = SaveCodec.encode(game);
+        SaveCodec.write(save, snapshot);
+        channel = startJournal(checksum(save));
+    }
+
+    /** @return the journal file that belongs to a snapshot */
+    static File journalFile(File snapshot) {
+        return new File(snapshot.getPath() + SUFFIX);
+    }
+
+    /** @return the checksum stored at the end of a save */
+    static int checksum(ByteBuffer save) {
+        return save.getInt(save.limit() - SaveCodec.CHECKSUM_BYTES);
+    }
+
+    /** Replace the journal with an empty one, atomically
+      * @param checksum the checksum of the snapshot it belongs to
+      * @return a channel that appends to the new journal
+      * */
+    FileChannel startJournal(int checksum) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(checksum).putInt(0).flip();
+        SaveCodec.write(header, journal);
+        return FileChannel.open(journal.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    /** Append a command given on the game, after it changed the game
+      * @param command one of w, a, s, d, u
+      * */
+    public void append(char command) {
+        append(command, 1);
+    }
+
+    /** Append the same command several times, after all of them changed
+      * the game
+      * @param command one of w, a, s, d, u
+      * @param count the number of times
+      * */
+    public void append(char command, int count) {
+        boolean compact;
+        synchronized (this) {
+            if (pendingCount + count > pending.length) {
+                byte[] grown = new byte[Math.max(2 * pending.length,
+                        pendingCount + count)];
+                System.arraycopy(pending, 0, grown, 0, pendingCount);
+                pending = grown;
+            }
+            for (int i = 0; i < count; i++) {
+                pending[pendingCount++] = (byte) command;
+            }
+            appended += count;
+            sinceCompaction += count;
+            compact = !compacting && sinceCompaction >= compactLimit;
+            if (!flushQueued) {
+                flushQueued = true;
+                writer.execute(this::flushQuietly);
+            }
+        }
+        if (compact) {
+            compact();
+        }
+    }
+
+    /** Fold the journal into a new snapshot of the game. The game is
+      * encoded right away and the files are written in the background.
+      * */
+    public void compact() {
+        ByteBuffer save = SaveCodec.encode(game);
+        synchronized (this) {
+            compacting = true;
+            boundary = appended;
+            sinceCompaction = 0;
+        }
+        writer.execute(() -> {
+            try {
+                //the old journal is complete before the snapshot that
+                //replaces it is written
+                flush();
+                SaveCodec.write(save, snapshot);
+                channel.close();
+                channel = startJournal(checksum(save));
+            } catch (IOException e) {
+                fail(e);
+            } finally {
+                //commands after the boundary are held back until here,
+                //they go to whichever journal is open now
+                synchronized (this) {
+                    compacting = false;
+                }
+            }
+            flushQuietly();
+        });
+    }
+
+    /** Write the commands that were appended and sync them to disk. Only
+      * called on the writer thread.
+      * */
+    void flush() throws IOException {
+        synchronized (this) {
+            flushQueued = false;
+            long limit = compacting ? boundary : appended;
+            int count = (int) (limit - taken);
+            if (count <= 0) {
+                return;
+            }
+            if (batch.capacity() < count) {
+                batch = ByteBuffer.allocateDirect(Math.max(count,
+                        2 * batch.capacity()));
+            }
+            batch.clear();
+            batch.put(pending, 0, count).flip();
+            System.arraycopy(pending, count, pending, 0, pendingCount - count);
+            pendingCount -= count;
+            taken = limit;
+        }
+        while (batch.hasRemaining()) {
+            channel.write(batch);
+        }
+        channel.force(false);
+    }
+
+    /** Write the commands that were appended, keeping what went wrong
+      * for the next sync. Only called on the writer thread.
+      * */
+    void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /** Keep an IOException of the writer thread for the next sync */
+    synchronized void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        } else {
+            failure.addSuppressed(e);
+        }
+    }
+
+    /** Wait until every command appended so far is on disk
+      * @throws IOException if the writer was interrupted, or if writing
+      *         the journal or a snapshot failed since the last sync
+      * */
+    public void sync() throws IOException {
+        try {
+            writer.submit(() -> {
+                flush();
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            fail(new IOException(e.getCause()));
+        }
+        IOException failed;
+        synchronized (this) {
+            failed = failure;
+            failure = null;
+        }
+        if (failed != null) {
+            throw failed;
+        }
+    }
+
+    /** Write every command appended so far and stop the writer
+      * @throws IOException as sync does
+      * */
+    @Override
+    public void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            writer.shutdown();
+            try {
+                writer.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            channel.close();
+        }
+    }
+
+    /** Restore a game from a snapshot and its journal
+      * @param snapshot the file that holds the snapshot
+      * @return the game after every command in the journal, or after the
+      *         snapshot if the journal is missing or belongs to another
+      *         snapshot
+      * @throws IOException if the snapshot cannot be read
+      * */
+    static Streamline recover(File snapshot) throws IOException {
+        ByteBuffer save = ByteBuffer.wrap(Files.readAllBytes(
+                snapshot.toPath()));
+        Streamline game = SaveCodec.decode(save);
+        File journal = journalFile(snapshot);
+        if (!journal.isFile()) {
+            return game;
+        }
+
+        ByteBuffer commands = ByteBuffer.wrap(Files.readAllBytes(
+                journal.toPath()));
+        if (commands.remaining() < HEADER_BYTES
+                || commands.getInt() != MAGIC
+                || commands.getInt() != checksum(save)) {
+            return game;
+        }
+        commands.position(HEADER_BYTES);
+        while (commands.hasRemaining()) {
+            char command = (char) commands.get();
+            Direction direction = Replay.toDirection(command);
+            if (direction != null) {
+                game.recordAndMove(direction);
+            } else if (command == Streamline.u.charAt(0)) {
+                game.undo();
+            } else {
+                //the rest was torn by the crash
+                break;
+            }
+        }
+        return game;
+    }
+}
@@ -0,0 +1,91 @@
+/** This class holds, for every cell of a board and every Direction, how
+  * many cells a slide can cover before it reaches an obstacle or the edge
+  * of the board. Obstacles do not change while a level is played, so the
+  * table is built once per level, the first time a slide needs it, and
+  * shared by every copy of the board made after that; only trails have
+  * to be checked at move time.
+  *
+  * Runs are kept as chars, 8 bytes per cell. A run of SATURATED or more
+  * cells is kept as SATURATED, and the rest of it is read from the cell
+  * SATURATED cells ahead, which is always free.
+  * */
+public class JumpTable {
+
+    // Boards with more cells than this do not get a table, their slides
+    // scan the obstacle bitsets instead
+    static final int MAX_CELLS = 1 << 22;
+
+    static final int DIRECTIONS = Direction.values().length;
+    static final int SATURATED = Character.MAX_VALUE;
+
+    // Final, so that threads that share a board see the whole table
+    final int width;
+
+    // Free cells ahead, at ((row * width + col) * DIRECTIONS + ordinal)
+    final char[] runs;
+
+    /** Build the table for the obstacles of a board
+      * @param board the board, which must have at most MAX_CELLS cells
+      * */
+    JumpTable(Board board) {
+        int height = board.getHeight();
+        width = board.getWidth();
+        runs = new char[height * width * DIRECTIONS];
+        int right = Direction.RIGHT.ordinal();
+        int left = Direction.LEFT.ordinal();
+        int up = Direction.UP.ordinal();
+        int down = Direction.DOWN.ordinal();
+
+        //every run is one longer than the run of the next cell, unless
+        //the next cell is an obstacle or off the board
+        for (int row = 0; row < height; row++) {
+            int run = 0;
+            for (int col = width - 2; col >= 0; col--) {
+                run = board.isObstacle(row, col + 1) ? 0 : run + 1;
+                runs[index(row, col) + right] = saturate(run);
+            }
+            run = 0;
+            for (int col = 1; col < width; col++) {
+                run = board.isObstacle(row, col - 1) ? 0 : run + 1;
+                runs[index(row, col) + left] = saturate(run);
+            }
+        }
+        for (int col = 0; col < width; col++) {
+            int run = 0;
+            for (int row = height - 2; row >= 0; row--) {
+                run = board.isObstacle(row + 1, col) ? 0 : run + 1;
+                runs[index(row, col) + down] = saturate(run);
+            }
+            run = 0;
+            for (int row = 1; row < height; row++) {
+                run = board.isObstacle(row - 1, col) ? 0 : run + 1;
+                runs[index(row, col) + up] = saturate(run);
+            }
+        }
+    }
+
+    static char saturate(int run) {
+        return (char) Math.min(run, SATURATED);
+    }
+
+    int index(int row, int col) {
+        return (row * width + col) * DIRECTIONS;
+    }
+
+    /** @return the number of cells from the given cell to the next
+      *         obstacle or edge in the given direction, ignoring trails
+      * */
+    public int run(int row, int col, Direction direction) {
+        int ordinal = direction.ordinal();
+        int run = runs[index(row, col) + ordinal];
+        int total = run;
+        //only lines longer than SATURATED cells get here
+        while (run == SATURATED) {
+            row += SATURATED * direction.getRowStep();
+            col += SATURATED * direction.getColStep();
+            run = runs[index(row, col) + ordinal];
+            total += run;
+        }
+        return total;
+    }
+}
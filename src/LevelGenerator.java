@@ -0,0 +1,186 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.stream.*;
+
+/** This class generates random levels that are guaranteed to be
+  * solvable. Every level is built from a seed, so the same seed always
+  * gives the same level. A level is only accepted if its shortest
+  * solution has at least a requested number of moves, which is used as
+  * its difficulty.
+  * */
+public class LevelGenerator {
+
+    static final String USAGE =
+        "Usage: \n" +
+        "> java LevelGenerator <height> <width> <obstacles> <moves> <count>" +
+            " <seed> <directory>\n" +
+        "      - to write count solvable levels of the given size, each wit" +
+            "h the given number\n" +
+        "        of obstacles and a shortest solution of at least the given" +
+            " number of moves,\n" +
+        "        to files in the specified directory\n";
+    static final int ARGUMENT_COUNT = 7;
+    static final String FILE_FORMAT = "level%06d";
+
+    // Number of boards tried for a single level before settling for the
+    // hardest solvable one
+    static final int MAX_ATTEMPTS = 64;
+
+    // The solver gives up on a board after this many states
+    static final int STATE_LIMIT = 100000;
+
+    int height;
+    int width;
+    int obstacles;
+    int minMoves;
+
+    /** Initialize the generator with the properties of its levels
+      * @param height the number of rows of every level
+      * @param width the number of columns of every level
+      * @param obstacles the number of obstacles on every level
+      * @param minMoves the requested length of the shortest solution
+      * */
+    public LevelGenerator(int height, int width, int obstacles,
+                          int minMoves) {
+        this.height = height;
+        this.width = width;
+        this.obstacles = obstacles;
+        this.minMoves = minMoves;
+    }
+
+    /** Build a single random board, which may not be solvable
+      * @param random the source of all positions
+      * @return the board
+      * */
+    GameState randomBoard(Random random) {
+        //draw two distinct cells for the player and the goal
+        int cells = height * width;
+        int player = random.nextInt(cells);
+        int goal = random.nextInt(cells - 1);
+        if (goal >= player) {
+            goal++;
+        }
+        GameState state = new GameState(height, width, player / width,
+                player % width, goal / width, goal % width);
+        state.addRandomObstacles(obstacles, random);
+        return state;
+    }
+
+    /** Generate the level for the given seed. If none of the boards
+      * tried is hard enough, the hardest solvable one is returned.
+      * @param seed the seed of the level
+      * @return a solvable level, or null if no solvable board was found
+      * */
+    public GameState generate(long seed) {
+        if (height * width < 2) {
+            return null;
+        }
+        StreamlineSolver solver = new StreamlineSolver();
+        solver.stateLimit = STATE_LIMIT;
+        GameState hardest = null;
+        int hardestMoves = -1;
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            //mixing the attempt on its own keeps attempt k of one level
+            //apart from the first attempt of level k later
+            Random random = new Random(Zobrist.mix(seed
+                    ^ Zobrist.mix(attempt + 1)));
+            GameState state = randomBoard(random);
+            List<Direction> moves = solver.solve(state);
+            if (moves == null) {
+                continue;
+            }
+            if (moves.size() >= minMoves) {
+                return state;
+            }
+            if (moves.size() > hardestMoves) {
+                hardest = state;
+                hardestMoves = moves.size();
+            }
+        }
+        return hardest;
+    }
+
+    /** Return the seed of a single level of a batch
+      * @param seed the seed of the whole batch
+      * @param index the index of the level
+      * @return a seed that shares no attempts with the other levels
+      * */
+    static long levelSeed(long seed, long index) {
+        return Zobrist.mix(Zobrist.mix(seed) ^ index);
+    }
+
+    /** Generate levels in parallel. Level i is built from its own seed,
+      * so the result does not depend on the number of threads. A level
+      * that equals an earlier one is replaced by a level built from a
+      * seed past the end of the batch, so every level is unique.
+      * @param count the number of levels
+      * @param seed the seed of the whole batch
+      * @return the levels in order, levels that could not be generated
+      *         or that stayed duplicates are left out
+      * */
+    public List<GameState> generateBatch(int count, long seed) {
+        List<GameState> generated = IntStream.range(0, count).parallel()
+            .mapToObj(i -> generate(levelSeed(seed, i)))
+            .collect(Collectors.toList());
+
+        //replace duplicates in order, so the batch stays reproducible
+        Set<GameState> seen = new HashSet<>();
+        List<GameState> levels = new ArrayList<>();
+        long nextIndex = count;
+        for (GameState state : generated) {
+            for (int retry = 0; state != null && seen.contains(state)
+                    && retry < MAX_ATTEMPTS; retry++) {
+                state = generate(levelSeed(seed, nextIndex++));
+            }
+            if (state != null && seen.add(state)) {
+                levels.add(state);
+            }
+        }
+        return levels;
+    }
+
+    /** Generate levels and write them to a directory */
+    public static void main(String[] args) {
+        if (args.length != ARGUMENT_COUNT) {
+            System.out.print(USAGE);
+            return;
+        }
+        LevelGenerator generator;
+        int count;
+        long seed;
+        try {
+            generator = new LevelGenerator(Integer.parseInt(args[0]),
+                Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                Integer.parseInt(args[3]));
+            count = Integer.parseInt(args[4]);
+            seed = Long.parseLong(args[5]);
+        } catch (NumberFormatException e) {
+            System.out.print(USAGE);
+            return;
+        }
+        File directory = new File(args[6]);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            System.out.printf("Cannot create directory %s. Exiting...\n",
+                args[6]);
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        List<GameState> levels = generator.generateBatch(count, seed);
+        long elapsed = System.nanoTime() - startTime;
+
+        try {
+            for (int i = 0; i < levels.size(); i++) {
+                Streamline.writeLevel(levels.get(i),
+                    new File(directory, String.format(FILE_FORMAT, i)));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        System.out.printf("Generated %d levels in %.1f ms\n", levels.size(),
+            elapsed / 1e6);
+    }
+}
@@ -0,0 +1,240 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/** This class reads and writes level packs, binary files that hold many
+  * levels at once. A pack is memory-mapped when it is opened, so any
+  * level can be decoded directly from the mapped file without reading
+  * the levels before it.
+  *
+  * All numbers are big-endian. A pack starts with a 16 byte header
+  * (MAGIC, VERSION, number of levels, 0), followed by one 8 byte offset
+  * per level. Every level is stored at its offset as a 32 byte record
+  * header (height, width, playerRow, playerCol, goalRow, goalCol, flags,
+  * 0), followed by the row-major obstacle bitset of its Board and, if
+  * the HAS_TRAILS flag is set, the row-major trail bitset.
+  * */
+public class LevelPack {
+
+    static final String USAGE =
+        "Usage: \n" +
+        "> java LevelPack <directory> <packfile>  - to write all levels in" +
+            " the directory\n" +
+        "                                           to a single pack file\n";
+
+    static final int MAGIC = 0x534C504B;     // "SLPK"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int OFFSET_BYTES = Long.BYTES;
+    static final int RECORD_HEADER_BYTES = 32;
+    static final int HAS_TRAILS = 1;
+
+    // The whole pack file, mapped into memory
+    MappedByteBuffer buffer;
+
+    // Number of levels in the pack
+    int size;
+
+    /** Map an existing pack file into memory
+      * @param file the pack file
+      * @throws IOException if the file cannot be read or is not a pack
+      * */
+    public LevelPack(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            //the mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        }
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a level pack");
+        }
+        if (buffer.getInt(Integer.BYTES) != VERSION) {
+            throw new IOException(file + " has unsupported version "
+                    + buffer.getInt(Integer.BYTES));
+        }
+        size = buffer.getInt(2 * Integer.BYTES);
+        if (size < 0 || HEADER_BYTES + (long) size * OFFSET_BYTES
+                > buffer.capacity()) {
+            throw new IOException(file + " has a broken index");
+        }
+    }
+
+    /** Check whether a file starts like a level pack
+      * @param file the file to check
+      * @return true if the file starts with MAGIC
+      * */
+    static boolean isPack(File file) {
+        try (DataInputStream input = new DataInputStream(
+                new FileInputStream(file))) {
+            return input.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** @return the number of levels in the pack */
+    public int size() {
+        return size;
+    }
+
+    /** Decode a single level. Only the absolute accessors of the shared
+      * buffer are used, so levels can be decoded from several threads.
+      * The bitsets are not parsed but they are copied into the new Board,
+      * one bulk copy per bitset, so decoding still takes time in the
+      * number of words of the level.
+      * @param index the index of the level
+      * @return a new GameState holding the level
+      * @throws IllegalArgumentException if the record is broken
+      * */
+    public GameState getLevel(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("level " + index
+                    + " of " + size);
+        }
+        long offset = buffer.getLong(HEADER_BYTES + index * OFFSET_BYTES);
+        if (offset < 0 || offset + RECORD_HEADER_BYTES > buffer.capacity()) {
+            throw new IllegalArgumentException("level " + index
+                    + " has a broken offset");
+        }
+        int position = (int) offset;
+        int height = buffer.getInt(position);
+        int width = buffer.getInt(position + Integer.BYTES);
+        int playerRow = buffer.getInt(position + 2 * Integer.BYTES);
+        int playerCol = buffer.getInt(position + 3 * Integer.BYTES);
+        int goalRow = buffer.getInt(position + 4 * Integer.BYTES);
+        int goalCol = buffer.getInt(position + 5 * Integer.BYTES);
+        int flags = buffer.getInt(position + 6 * Integer.BYTES);
+
+        //check the size of the bitsets before the board is allocated
+        if (height < 0 || width < 0 || !fitsBitIndex(height, width)
+                || !fitsBitIndex(width, height)) {
+            throw new IllegalArgumentException("level " + index
+                    + " has a broken size " + height + "x" + width);
+        }
+        long words = (long) height * ((width + Board.WORD_BITS - 1)
+                >>> Board.WORD_SHIFT);
+        long wordCount = (flags & HAS_TRAILS) != 0 ? 2 * words : words;
+        int start = position + RECORD_HEADER_BYTES;
+        if (start + wordCount * Long.BYTES > buffer.capacity()) {
+            throw new IllegalArgumentException("level " + index
+                    + " is truncated");
+        }
+        GameState state = new GameState(height, width, playerRow, playerCol,
+                goalRow, goalCol);
+        LongBuffer bits = buffer.duplicate().position(start).slice()
+                .asLongBuffer();
+        LongBuffer obstacles = bits.duplicate().limit((int) words);
+        LongBuffer trails = null;
+        if ((flags & HAS_TRAILS) != 0) {
+            trails = bits.duplicate().position((int) words).slice();
+        }
+        state.board.setRowWords(obstacles, trails);
+        return state;
+    }
+
+    /** @return true if every bit of a board with the given number of
+      *         lines and cells per line has an int index
+      * */
+    static boolean fitsBitIndex(long lines, long cells) {
+        long lineWords = (cells + Board.WORD_BITS - 1) >>> Board.WORD_SHIFT;
+        return lines * lineWords * Board.WORD_BITS <= Integer.MAX_VALUE;
+    }
+
+    /** Write levels to a new pack file, one level at a time
+      * @param levels the level files, in the order they are packed
+      * @param file the pack file to write
+      * @throws IOException if a level cannot be read or the pack written
+      * */
+    static void write(List<File> levels, File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putInt(levels.size())
+                    .putInt(0).flip();
+            writeFully(channel, header, 0);
+
+            ByteBuffer index = ByteBuffer.allocate(levels.size()
+                    * OFFSET_BYTES);
+            long offset = HEADER_BYTES + (long) levels.size() * OFFSET_BYTES;
+            for (File level : levels) {
+                ByteBuffer record = encode(Streamline.readLevel(level));
+                index.putLong(offset);
+                offset += writeFully(channel, record, offset);
+            }
+            index.flip();
+            writeFully(channel, index, HEADER_BYTES);
+        }
+    }
+
+    /** Encode a single level as a record
+      * @param state the level
+      * @return the record, ready to be written
+      * */
+    static ByteBuffer encode(GameState state) {
+        boolean hasTrails = state.board.hasTrails();
+        int words = state.board.rowMajorWords();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES
+                + (hasTrails ? 2 : 1) * words * Long.BYTES);
+        record.putInt(state.board.getHeight())
+                .putInt(state.board.getWidth())
+                .putInt(state.playerRow).putInt(state.playerCol)
+                .putInt(state.goalRow).putInt(state.goalCol)
+                .putInt(hasTrails ? HAS_TRAILS : 0).putInt(0);
+
+        LongBuffer bits = record.slice().asLongBuffer();
+        LongBuffer trails = LongBuffer.allocate(words);
+        state.board.getRowWords(bits, trails);
+        if (hasTrails) {
+            bits.put(trails.array());
+        }
+        return record.position(0);
+    }
+
+    /** Write the whole buffer at the given position of the channel
+      * @return the number of bytes written
+      * */
+    static int writeFully(FileChannel channel, ByteBuffer buffer,
+                          long position) throws IOException {
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return length;
+    }
+
+    /** Convert the text level files in a directory into a pack file */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.out.print(USAGE);
+            return;
+        }
+        File directory = new File(args[0]);
+        if (!directory.isDirectory()) {
+            System.out.printf("Directory %s does not exist. Exiting...\n",
+                args[0]);
+            return;
+        }
+
+        File[] subfiles = directory.listFiles();
+        Arrays.sort(subfiles);
+        List<File> levels = new ArrayList<>();
+        for (File subfile : subfiles) {
+            // in case there's a directory in there, skip
+            if (!subfile.isDirectory()) {
+                levels.add(subfile);
+            }
+        }
+
+        try {
+            write(levels, new File(args[1]));
+            System.out.printf("Packed %d levels into %s\n", levels.size(),
+                args[1]);
+        } catch (IOException | RuntimeException e) {
+            System.out.printf("Cannot write %s: %s\n", args[1], e);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** This class checks every level file in a directory without starting
+  * the GUI. Levels are parsed and checked in parallel, and the result
+  * for every file is printed as one tab separated line:
+  *
+  *     file    status    moves    message
+  *
+  * where status is one of OK, INVALID, UNSOLVABLE or UNKNOWN, and moves
+  * is the length of the shortest solution or -1.
+  * */
+public class LevelValidator {
+
+    static final String USAGE =
+        "Usage: \n" +
+        "> java LevelValidator <directory>              - to check all" +
+            " levels in the directory\n" +
+        "> java LevelValidator -t n [-l s] <directory>  - to do the same " +
+            "with n threads, giving\n" +
+        "                                                 up on a level aft" +
+            "er s searched states\n";
+    static final String THREADS_FLAG = "-t";
+    static final String LIMIT_FLAG = "-l";
+    static final int DEFAULT_STATE_LIMIT = 1000000;
+
+    static final String OK = "OK";
+    static final String INVALID = "INVALID";
+    static final String UNSOLVABLE = "UNSOLVABLE";
+    static final String UNKNOWN = "UNKNOWN";
+    static final char SEPARATOR = '\t';
+
+    /** The outcome of checking a single level file */
+    static class Result {
+        File file;
+        String status;
+        int moves;
+        String message;
+
+        Result(File file, String status, int moves, String message) {
+            this.file = file;
+            this.status = status;
+            this.moves = moves;
+            this.message = message;
+        }
+
+        /** @return the result as one line of the report */
+        @Override
+        public String toString() {
+            //keep every result on a single line with four columns
+            String text = message.replace(SEPARATOR, ' ').replace('\n', ' ');
+            return file.getPath() + SEPARATOR + status + SEPARATOR + moves
+                + SEPARATOR + text;
+        }
+    }
+
+    // The solver gives up on a level after this many states
+    int stateLimit = DEFAULT_STATE_LIMIT;
+
+    /** Check a single level file
+      * @param file the level file
+      * @return the result of the check, never null
+      * */
+    Result validate(File file) {
+        GameState state;
+        try {
+            state = Streamline.readLevel(file);
+        } catch (IOException | RuntimeException e) {
+            //Scanner, Board and GameState report malformed files with
+            //runtime exceptions
+            return new Result(file, INVALID, -1, "cannot parse: " + e);
+        }
+
+        String problem = findProblem(state);
+        if (problem != null) {
+            return new Result(file, INVALID, -1, problem);
+        }
+
+        StreamlineSolver solver = new StreamlineSolver();
+        solver.stateLimit = stateLimit;
+        List<Direction> moves = solver.solve(state);
+        if (moves != null) {
+            return new Result(file, OK, moves.size(),
+                StreamlineSolver.toCommands(moves));
+        }
+        if (solver.limitReached) {
+            return new Result(file, UNKNOWN, -1,
+                "gave up after " + solver.statesSeen + " states");
+        }
+        return new Result(file, UNSOLVABLE, -1, "no solution");
+    }
+
+    /** Look for a mistake in the layout of a level
+      * @param state the level as it was read from its file
+      * @return a description of the first mistake, or null if none
+      * */
+    static String findProblem(GameState state) {
+        int height = state.board.getHeight();
+        int width = state.board.getWidth();
+        if (height <= 0 || width <= 0) {
+            return "board is " + height + "x" + width;
+        }
+        if (!inBounds(state.playerRow, state.playerCol, height, width)) {
+            return "player is off the board";
+        }
+        if (!inBounds(state.goalRow, state.goalCol, height, width)) {
+            return "goal is off the board";
+        }
+        if (state.board.isObstacle(state.playerRow, state.playerCol)) {
+            return "player is on an obstacle";
+        }
+        if (state.board.isObstacle(state.goalRow, state.goalCol)) {
+            return "goal is on an obstacle";
+        }
+        if (state.levelPassed) {
+            return "player starts on the goal";
+        }
+        return null;
+    }
+
+    static boolean inBounds(int row, int col, int height, int width) {
+        return row >= 0 && row < height && col >= 0 && col < width;
+    }
+
+    /** Check all files in a directory using the given number of threads
+      * @param directory the directory that holds the levels
+      * @param threads the number of threads to use
+      * @return the results, sorted by file name
+      * @throws InterruptedException if interrupted while waiting
+      * */
+    List<Result> validateAll(File directory, int threads)
+            throws InterruptedException {
+        File[] subfiles = directory.listFiles();
+        Arrays.sort(subfiles);
+
+        List<File> files = new ArrayList<>();
+        List<Callable<Result>> checks = new ArrayList<>();
+        for (File subfile : subfiles) {
+            // in case there's a directory in there, skip
+            if (!subfile.isDirectory()) {
+                files.add(subfile);
+                checks.add(() -> validate(subfile));
+            }
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Result> results = new ArrayList<>();
+            List<Future<Result>> futures = pool.invokeAll(checks);
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    //a level that runs the check out of memory fails on
+                    //its own, the others are still reported
+                    results.add(new Result(files.get(i), UNKNOWN, -1,
+                        "check failed: " + e.getCause()));
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Check the directory given on the command line and print the
+      * report, followed by a summary on standard error
+      * */
+    public static void main(String[] args) throws InterruptedException {
+        LevelValidator validator = new LevelValidator();
+        int threads = Runtime.getRuntime().availableProcessors();
+        int next = 0;
+        try {
+            while (next < args.length - 1) {
+                if (args[next].equals(THREADS_FLAG)) {
+                    threads = Integer.parseInt(args[next + 1]);
+                } else if (args[next].equals(LIMIT_FLAG)) {
+                    validator.stateLimit = Integer.parseInt(args[next + 1]);
+                } else {
+                    break;
+                }
+                next += 2;
+            }
+        } catch (NumberFormatException e) {
+            System.out.print(USAGE);
+            return;
+        }
+        if (next != args.length - 1 || threads < 1) {
+            System.out.print(USAGE);
+            return;
+        }
+        File directory = new File(args[next]);
+        if (!directory.isDirectory()) {
+            System.out.printf("Directory %s does not exist. Exiting...\n",
+                args[next]);
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        List<Result> results = validator.validateAll(directory, threads);
+        long elapsed = System.nanoTime() - startTime;
+
+        int valid = 0;
+        StringBuilder report = new StringBuilder();
+        for (Result result : results) {
+            report.append(result).append('\n');
+            if (result.status.equals(OK)) {
+                valid++;
+            }
+        }
+        System.out.print(report);
+        System.err.printf("Checked %d levels in %.1f ms: %d ok, %d not ok\n",
+            results.size(), elapsed / 1e6, valid, results.size() - valid);
+    }
+}
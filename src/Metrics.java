@@ -0,0 +1,261 @@
+import java.lang.management.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+
+/** This class counts and times the operations on the hot path of the
+  * game. It is switched on with -Dstreamline.metrics=true. ENABLED is a
+  * constant, so when metrics are off the JIT removes every call to
+  * start() and record() and they cost nothing.
+  *
+  * Every operation has a Histogram of its latency in nanoseconds, with
+  * SUB_BUCKETS buckets for every power of two, so any value is kept with
+  * an error of less than 1/SUB_BUCKETS. Allocated bytes per move and the
+  * size of the history are kept the same way. Every histogram is
+  * registered as an MXBean named streamline:type=Metrics,name=<name>,
+  * and with -Dstreamline.metrics.interval=s all of them are printed to
+  * standard error every s seconds.
+  * */
+public class Metrics {
+
+    static final boolean ENABLED = Boolean.getBoolean("streamline.metrics");
+    static final long DUMP_INTERVAL = Long.getLong(
+            "streamline.metrics.interval", 0);
+    static final String DOMAIN = "streamline";
+
+    static final int SUB_BUCKET_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1)
+            * SUB_BUCKETS;
+
+    /** The view of a Histogram that JMX clients get */
+    public interface HistogramMXBean {
+        long getCount();
+        long getTotal();
+        double getMean();
+        long getMax();
+        long getPercentile50();
+        long getPercentile99();
+        long getPercentile999();
+        void reset();
+    }
+
+    /** Counts values and keeps their distribution in buckets whose
+      * width grows with the value. Can be recorded from any thread.
+      * */
+    static class Histogram implements HistogramMXBean {
+        String name;
+        String unit;
+        LongAdder count = new LongAdder();
+        LongAdder total = new LongAdder();
+        LongAccumulator max = new LongAccumulator(Math::max, 0);
+        AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        Histogram(String name, String unit) {
+            this.name = name;
+            this.unit = unit;
+        }
+
+        /** Add a value, negative values are counted as 0 */
+        void record(long value) {
+            if (!ENABLED) {
+                return;
+            }
+            value = Math.max(0, value);
+            count.increment();
+            total.add(value);
+            max.accumulate(value);
+            buckets.incrementAndGet(bucket(value));
+        }
+
+        /** Add the time since start, as returned by Metrics.start() */
+        void recordSince(long start) {
+            if (ENABLED) {
+                record(System.nanoTime() - start);
+            }
+        }
+
+        /** @return the bucket that holds a value */
+        static int bucket(long value) {
+            //values below 2 * SUB_BUCKETS have a bucket each, larger
+            //ones share a bucket with the values of the same top bits
+            int shift = Math.max(0, Long.SIZE - SUB_BUCKET_BITS - 1
+                    - Long.numberOfLeadingZeros(value));
+            return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+        }
+
+        /** @return the largest value that falls into a bucket */
+        static long bucketMax(int bucket) {
+            int shift = Math.max(0, (bucket >>> SUB_BUCKET_BITS) - 1);
+            long top = bucket - ((long) shift << SUB_BUCKET_BITS);
+            return ((top + 1) << shift) - 1;
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public long getTotal() {
+            return total.sum();
+        }
+
+        @Override
+        public double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) total.sum() / n;
+        }
+
+        @Override
+        public long getMax() {
+            return max.get();
+        }
+
+        /** @return the smallest bucket bound that at least the given
+          *         fraction of the values are not above
+          * */
+        long percentile(double fraction) {
+            long n = 0;
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                n += counts[i];
+            }
+            long rank = (long) Math.ceil(fraction * n);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank && counts[i] > 0) {
+                    return Math.min(bucketMax(i), getMax());
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public long getPercentile50() {
+            return percentile(0.5);
+        }
+
+        @Override
+        public long getPercentile99() {
+            return percentile(0.99);
+        }
+
+        @Override
+        public long getPercentile999() {
+            return percentile(0.999);
+        }
+
+        @Override
+        public void reset() {
+            count.reset();
+            total.reset();
+            max.reset();
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+        }
+
+        /** @return the histogram as one line of the dump */
+        @Override
+        public String toString() {
+            return String.format("%-16s count=%d mean=%.1f p50=%d p99=%d " +
+                "p99.9=%d max=%d %s", name, getCount(), getMean(),
+                getPercentile50(), getPercentile99(), getPercentile999(),
+                getMax(), unit);
+        }
+    }
+
+    static final Histogram MOVE = new Histogram("move", "ns");
+    static final Histogram RECORD_AND_MOVE =
+        new Histogram("recordAndMove", "ns");
+    static final Histogram UNDO = new Histogram("undo", "ns");
+    static final Histogram LOAD = new Histogram("loadFromFile", "ns");
+    static final Histogram PLAYER_MOVED = new Histogram("onPlayerMoved", "ns");
+    static final Histogram RESET_GRID = new Histogram("resetGrid", "ns");
+    static final Histogram MOVE_BYTES = new Histogram("bytesPerMove", "B");
+    static final Histogram HISTORY_SIZE = new Histogram("historySize",
+        "moves");
+
+    static final Histogram[] ALL = {MOVE, RECORD_AND_MOVE, UNDO, LOAD,
+        PLAYER_MOVED, RESET_GRID, MOVE_BYTES, HISTORY_SIZE};
+
+    // Reads the bytes allocated by a thread, null if the JVM cannot
+    static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+    static {
+        if (ENABLED) {
+            register();
+            if (DUMP_INTERVAL > 0) {
+                startDump();
+            }
+        }
+    }
+
+    /** @return the start time of an operation, or 0 if metrics are off */
+    static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /** @return the bytes allocated by the current thread so far, or 0 if
+      *         metrics are off or the JVM cannot tell
+      * */
+    static long allocatedBytes() {
+        if (!ENABLED || THREADS == null) {
+            return 0;
+        }
+        return THREADS.getThreadAllocatedBytes(
+                Thread.currentThread().getId());
+    }
+
+    static com.sun.management.ThreadMXBean threadBean() {
+        if (!ENABLED) {
+            return null;
+        }
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) bean;
+        return threads.isThreadAllocatedMemorySupported() ? threads : null;
+    }
+
+    /** Register every histogram with the platform MBean server */
+    static void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (Histogram histogram : ALL) {
+            try {
+                server.registerMBean(histogram, new ObjectName(DOMAIN
+                        + ":type=Metrics,name=" + histogram.name));
+            } catch (JMException e) {
+                System.err.println("Cannot register metrics: " + e);
+            }
+        }
+    }
+
+    /** Print every histogram to standard error every DUMP_INTERVAL
+      * seconds
+      * */
+    static void startDump() {
+        ScheduledExecutorService dumper =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "metrics-dump");
+                thread.setDaemon(true);
+                return thread;
+            });
+        dumper.scheduleAtFixedRate(() -> System.err.print(dump()),
+            DUMP_INTERVAL, DUMP_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /** @return every histogram, one per line */
+    static String dump() {
+        StringBuilder text = new StringBuilder();
+        for (Histogram histogram : ALL) {
+            text.append(histogram).append('\n');
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,63 @@
+/** This class records what a single move changed on a GameState, so that
+  * the move can be undone without keeping a copy of the whole board.
+  * */
+public class MoveDelta {
+
+    // Direction of the move
+    Direction direction;
+
+    // Location of the player before the move
+    int fromRow;
+    int fromCol;
+
+    // Number of cells that got a trail, starting at the old location
+    int length;
+
+    // What the cell at the old location held before the move
+    char fromChar;
+
+    // Value of levelPassed before the move
+    boolean wasPassed;
+
+    /** Initialize all instance variables with the given parameters
+      * @param direction the direction of the move
+      * @param fromRow the row index of the player before the move
+      * @param fromCol the col index of the player before the move
+      * @param length the number of cells that got a trail
+      * @param fromChar the character at the old location before the move
+      * @param wasPassed levelPassed before the move
+      * */
+    public MoveDelta(Direction direction, int fromRow, int fromCol,
+                     int length, char fromChar, boolean wasPassed) {
+        this.direction = direction;
+        this.fromRow = fromRow;
+        this.fromCol = fromCol;
+        this.length = length;
+        this.fromChar = fromChar;
+        this.wasPassed = wasPassed;
+    }
+
+    /** @return the row index of the player after the move */
+    public int getToRow() {
+        return fromRow + direction.getRowStep() * length;
+    }
+
+    /** @return the col index of the player after the move */
+    public int getToCol() {
+        return fromCol + direction.getColStep() * length;
+    }
+
+    /** Report every cell whose content the move changed, that is every
+      * cell that got a trail. Undoing the move changes the same cells.
+      * @param listener is called once for each changed cell
+      * */
+    public void forEachChangedCell(CellListener listener) {
+        //the first cell already had a trail if the player left
+        //the goal a second time
+        int first = fromChar == GameState.TRAIL_CHAR ? 1 : 0;
+        for (int i = first; i < length; i++) {
+            listener.cellChanged(fromRow + direction.getRowStep() * i,
+                    fromCol + direction.getColStep() * i);
+        }
+    }
+}
@@ -0,0 +1,364 @@
+import java.nio.*;
+import java.util.*;
+
+/** This class runs the same breadth first search as StreamlineSolver, but
+  * keeps every state it reaches outside of the Java heap, so that the
+  * search is limited by the memory of the machine rather than by the
+  * heap, and the garbage collector has almost nothing to do.
+  *
+  * Obstacles never change during a search, so a state is stored as a
+  * fixed size record that holds only its hash, the record it was reached
+  * from, the player location and the trail bits. Records are appended to
+  * direct buffers in the order they are found, which is breadth first
+  * order, so the part of the store that was not expanded yet is the
+  * frontier. An open addressing table of record numbers, also held in
+  * direct buffers, finds states that were already reached.
+  *
+  * Only one state is ever decoded on the heap. Its moves are made and
+  * undone in place.
+  * */
+public class OffHeapSolver {
+
+    // Record layout, trail words follow the header
+    static final int HASH_OFFSET = 0;
+    static final int PARENT_OFFSET = 8;
+    static final int PLAYER_OFFSET = 16;
+    static final int DIRECTION_OFFSET = 20;
+    static final int HEADER_BYTES = 24;
+
+    static final byte NO_DIRECTION = -1;
+    static final long NO_PARENT = -1;
+
+    /** Fixed size records in a list of direct buffers, each holding a
+      * whole number of records
+      * */
+    static class RecordStore {
+        // Size of a single direct buffer
+        static final int CHUNK_BYTES = 1 << 22;
+
+        int recordBytes;
+        int recordsPerChunk;
+        List<ByteBuffer> chunks = new ArrayList<>();
+        long size;
+
+        RecordStore(int recordBytes) {
+            this.recordBytes = recordBytes;
+            this.recordsPerChunk = Math.max(1, CHUNK_BYTES / recordBytes);
+        }
+
+        /** @return the buffer that holds the given record */
+        ByteBuffer chunk(long record) {
+            return chunks.get((int) (record / recordsPerChunk));
+        }
+
+        /** @return the position of the given record in its buffer */
+        int offset(long record) {
+            return (int) (record % recordsPerChunk) * recordBytes;
+        }
+
+        /** Make room for one more record
+          * @return the number of the new record
+          * */
+        long append() {
+            if (size == (long) chunks.size() * recordsPerChunk) {
+                chunks.add(ByteBuffer.allocateDirect(
+                        recordsPerChunk * recordBytes));
+            }
+            return size++;
+        }
+
+        /** @return the number of bytes held by the store */
+        long capacityBytes() {
+            return (long) chunks.size() * recordsPerChunk * recordBytes;
+        }
+    }
+
+    /** An open addressing hash table of record numbers, with linear
+      * probing. Every slot holds 0 if it is empty, or the record number
+      * plus one in its low RECORD_BITS bits and the top bits of the
+      * record hash above them, so that most probes that do not match
+      * are rejected without reading the record.
+      * */
+    static class VisitedTable {
+        static final int RECORD_BITS = 40;
+        static final long RECORD_MASK = (1L << RECORD_BITS) - 1;
+        static final int CHUNK_SHIFT = 24;
+        static final int CHUNK_SLOTS = 1 << CHUNK_SHIFT;
+        static final int INITIAL_SLOTS = 1 << 16;
+
+        List<LongBuffer> chunks = new ArrayList<>();
+        long slots;
+        long size;
+
+        VisitedTable() {
+            allocate(INITIAL_SLOTS);
+        }
+
+        void allocate(long slotCount) {
+            chunks = new ArrayList<>();
+            slots = slotCount;
+            for (long allocated = 0; allocated < slotCount;
+                 allocated += CHUNK_SLOTS) {
+                int count = (int) Math.min(CHUNK_SLOTS, slotCount - allocated);
+                chunks.add(ByteBuffer.allocateDirect(count * Long.BYTES)
+                        .asLongBuffer());
+            }
+        }
+
+        long get(long slot) {
+            return chunks.get((int) (slot >>> CHUNK_SHIFT))
+                    .get((int) (slot & (CHUNK_SLOTS - 1)));
+        }
+
+        void set(long slot, long value) {
+            chunks.get((int) (slot >>> CHUNK_SHIFT))
+                    .put((int) (slot & (CHUNK_SLOTS - 1)), value);
+        }
+
+        /** @return the slot value for a record with the given hash */
+        static long entry(long record, long hash) {
+            return (hash & ~RECORD_MASK) | (record + 1);
+        }
+
+        /** @return the number of bytes held by the table */
+        long capacityBytes() {
+            return slots * Long.BYTES;
+        }
+    }
+
+    // Number of distinct states seen by the last search
+    long statesSeen;
+
+    // The search gives up once it has seen this many states
+    long stateLimit = Long.MAX_VALUE;
+
+    // true if the last search gave up because of stateLimit
+    boolean limitReached;
+
+    // false to stop at the first solution, true to go on until every
+    // reachable state was seen
+    boolean exhaustive;
+
+    // Length of the shortest solution found by the last search, or -1
+    int solutionLength;
+
+    // Off-heap bytes used by the last search
+    long offHeapBytes;
+
+    // The level being searched, cleared trails are restored from it
+    GameState level;
+    int words;
+
+    RecordStore records;
+    VisitedTable visited;
+
+    // Trail words of the state being encoded
+    long[] scratch;
+
+    /** Find the shortest sequence of moves that passes the level, or if
+      * exhaustive is set, also count every state that can be reached
+      * @param start the state to search from, it is not modified
+      * @return the moves in order, or null if the level cannot be passed
+      *         or stateLimit was reached
+      * */
+    public List<Direction> solve(GameState start) {
+        prepare(start);
+        statesSeen = 0;
+        limitReached = false;
+        solutionLength = -1;
+        long solution = NO_PARENT;
+
+        //the state that is decoded, moved and undone for every record
+        GameState state = new GameState(start);
+        insert(state, NO_PARENT, NO_DIRECTION);
+        if (start.levelPassed) {
+            solutionLength = 0;
+            solution = 0;
+        }
+
+        long layerEnd = records.size;
+        int depth = 0;
+        for (long record = 0; record < records.size; record++) {
+            if (solution != NO_PARENT && !exhaustive) {
+                break;
+            }
+            if (statesSeen >= stateLimit) {
+                limitReached = true;
+                solution = NO_PARENT;
+                solutionLength = -1;
+                break;
+            }
+            if (record == layerEnd) {
+                layerEnd = records.size;
+                depth++;
+            }
+            decode(record, state);
+            if (state.levelPassed) {
+                //the game ends on the goal
+                continue;
+            }
+            for (Direction direction : Direction.values()) {
+                MoveDelta delta = state.move(direction);
+                if (delta == null) {
+                    continue;
+                }
+                long child = insert(state, record,
+                        (byte) direction.ordinal());
+                boolean passed = state.levelPassed;
+                state.undo(delta);
+                if (child != NO_PARENT && passed && solution == NO_PARENT) {
+                    solution = child;
+                    solutionLength = depth + 1;
+                    if (!exhaustive) {
+                        break;
+                    }
+                }
+            }
+        }
+        offHeapBytes = records.capacityBytes() + visited.capacityBytes();
+        return solution == NO_PARENT ? null : pathTo(solution);
+    }
+
+    /** Set up the store and the table for a level */
+    void prepare(GameState start) {
+        level = new GameState(start);
+        words = level.board.rowMajorWords();
+        scratch = new long[words];
+        records = new RecordStore(HEADER_BYTES + words * Long.BYTES);
+        visited = new VisitedTable();
+    }
+
+    /** Add a state unless it was reached before
+      * @param state the state to add
+      * @param parent the record it was reached from
+      * @param direction the ordinal of the move that reached it
+      * @return the new record, or -1 if the state was reached before
+      * */
+    long insert(GameState state, long parent, byte direction) {
+        long hash = state.zobristHash();
+        state.board.trailRows.copyTo(LongBuffer.wrap(scratch));
+        int player = state.playerRow * state.board.getWidth()
+                + state.playerCol;
+
+        long slot = Zobrist.mix(hash) & (visited.slots - 1);
+        for (long entry; (entry = visited.get(slot)) != 0;
+             slot = (slot + 1) & (visited.slots - 1)) {
+            if ((entry & ~VisitedTable.RECORD_MASK)
+                    == (hash & ~VisitedTable.RECORD_MASK)
+                    && matches((entry & VisitedTable.RECORD_MASK) - 1,
+                        hash, player)) {
+                return -1;
+            }
+        }
+
+        long record = records.append();
+        ByteBuffer chunk = records.chunk(record);
+        int offset = records.offset(record);
+        chunk.putLong(offset + HASH_OFFSET, hash);
+        chunk.putLong(offset + PARENT_OFFSET, parent);
+        chunk.putInt(offset + PLAYER_OFFSET, player);
+        chunk.put(offset + DIRECTION_OFFSET, direction);
+        for (int i = 0; i < words; i++) {
+            chunk.putLong(offset + HEADER_BYTES + i * Long.BYTES, scratch[i]);
+        }
+        visited.set(slot, VisitedTable.entry(record, hash));
+        visited.size++;
+        statesSeen++;
+        if (visited.size * 2 > visited.slots) {
+            grow();
+        }
+        return record;
+    }
+
+    /** @return true if the record holds the state in scratch */
+    boolean matches(long record, long hash, int player) {
+        ByteBuffer chunk = records.chunk(record);
+        int offset = records.offset(record);
+        if (chunk.getLong(offset + HASH_OFFSET) != hash
+                || chunk.getInt(offset + PLAYER_OFFSET) != player) {
+            return false;
+        }
+        for (int i = 0; i < words; i++) {
+            if (chunk.getLong(offset + HEADER_BYTES + i * Long.BYTES)
+                    != scratch[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Double the table and insert every record again */
+    void grow() {
+        visited.allocate(visited.slots * 2);
+        for (long record = 0; record < records.size; record++) {
+            long hash = records.chunk(record).getLong(
+                    records.offset(record) + HASH_OFFSET);
+            long slot = Zobrist.mix(hash) & (visited.slots - 1);
+            while (visited.get(slot) != 0) {
+                slot = (slot + 1) & (visited.slots - 1);
+            }
+            visited.set(slot, VisitedTable.entry(record, hash));
+        }
+    }
+
+    /** Turn a record back into a state. Only the trail bits that differ
+      * from the state are changed, so the obstacles and the jump table of
+      * the board are kept.
+      * @param record the record to decode
+      * @param state receives the player location and the trails
+      * */
+    void decode(long record, GameState state) {
+        ByteBuffer chunk = records.chunk(record);
+        int offset = records.offset(record);
+        for (int word = 0; word < words; word++) {
+            setTrailWord(state.board, level.board, word, chunk.getLong(
+                    offset + HEADER_BYTES + word * Long.BYTES));
+        }
+        int player = chunk.getInt(offset + PLAYER_OFFSET);
+        int width = state.board.getWidth();
+        state.playerRow = player / width;
+        state.playerCol = player % width;
+        state.levelPassed = state.playerRow == state.goalRow
+                && state.playerCol == state.goalCol;
+    }
+
+    /** Change the trails of one row-major word of a board to the given
+      * bits, keeping its obstacles
+      * @param board the board to change
+      * @param level the board the search started from, a cleared trail
+      *        gets back what the level had there, which is an obstacle
+      *        if the player started on one
+      * @param word the index of the word
+      * @param trails the new trail bits of the word
+      * */
+    static void setTrailWord(Board board, Board level, int word,
+                             long trails) {
+        long changed = board.trailRows.word(word) ^ trails;
+        int row = word / board.rowWords;
+        int firstCol = (word % board.rowWords) << Board.WORD_SHIFT;
+        for (long bits = changed; bits != 0; bits &= bits - 1) {
+            int col = firstCol + Long.numberOfTrailingZeros(bits);
+            board.set(row, col, (trails & Long.lowestOneBit(bits)) != 0
+                    ? GameState.TRAIL_CHAR : level.get(row, col));
+        }
+    }
+
+    /** Collect the moves that lead from the first record to the given one
+      * @param record the last record of the path
+      * @return the moves in order
+      * */
+    List<Direction> pathTo(long record) {
+        LinkedList<Direction> moves = new LinkedList<>();
+        Direction[] directions = Direction.values();
+        while (true) {
+            ByteBuffer chunk = records.chunk(record);
+            int offset = records.offset(record);
+            long parent = chunk.getLong(offset + PARENT_OFFSET);
+            if (parent == NO_PARENT) {
+                return moves;
+            }
+            moves.addFirst(directions[chunk.get(offset + DIRECTION_OFFSET)]);
+            record = parent;
+        }
+    }
+}
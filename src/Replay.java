@@ -0,0 +1,208 @@
+import java.io.*;
+import java.util.*;
+
+/** This class replays recordings without the GUI. A recording is a level
+  * file followed by one more line that holds every command given on the
+  * level, each one of w, a, s, d for a move and u for an undo, as written
+  * by Streamline.saveRecording().
+  *
+  * All commands are applied to a single copy of the level, and undo is
+  * done with the MoveDelta of each move, so no GameState is copied per
+  * step.
+  * */
+public class Replay {
+
+    static final String USAGE =
+        "Usage: \n" +
+        "> java Replay <recording>                    - to replay a record" +
+            "ing and print the\n" +
+        "                                               final state\n" +
+        "> java Replay [-n steps] [-v] <recording> [expected]\n" +
+        "                                             - to stop after the " +
+            "given number of\n" +
+        "                                               commands, print eve" +
+            "ry state on the\n" +
+        "                                               way with -v, and co" +
+            "mpare the final\n" +
+        "                                               state with the save" +
+            "d game or the level\n" +
+        "                                               in the expected fil" +
+            "e\n";
+    static final String STEPS_FLAG = "-n";
+    static final String VERBOSE_FLAG = "-v";
+
+    /** A level and the commands given on it */
+    static class Recording {
+        GameState level;
+        String commands;
+
+        Recording(GameState level, String commands) {
+            this.level = level;
+            this.commands = commands;
+        }
+    }
+
+    // Number of commands to apply before stopping
+    int stopAt = Integer.MAX_VALUE;
+
+    // If not null, every state is drawn here, after each command
+    Appendable trace;
+
+    // Number of commands applied by the last call of run()
+    int applied;
+
+    /** Read a recording
+      * @param file the recording file
+      * @return the level and its commands, which may be empty
+      * @throws IOException if the file cannot be read
+      * @throws RuntimeException if the file is not properly formatted
+      * */
+    static Recording readRecording(File file) throws IOException {
+        try (Scanner scan = new Scanner(new BufferedReader(
+                new FileReader(file)))) {
+            GameState level = Streamline.readLevel(scan);
+            String commands = scan.hasNextLine() ? scan.nextLine() : "";
+            return new Recording(level, commands);
+        }
+    }
+
+    /** Apply commands to a copy of a level, stopping after stopAt
+      * commands. Whitespace between commands is skipped.
+      * @param level the level before the first command, left unchanged
+      * @param commands the commands, each one of w, a, s, d, u
+      * @return the state after the last applied command
+      * @throws IllegalArgumentException if a command is unknown
+      * @throws IOException if the trace throws it
+      * */
+    public GameState run(GameState level, CharSequence commands)
+            throws IOException {
+        GameState state = new GameState(level);
+
+        //the same moves Streamline.history would hold
+        MoveDelta[] moves = new MoveDelta[16];
+        int moveCount = 0;
+
+        applied = 0;
+        if (trace != null) {
+            ConsoleRenderer.render(state, trace);
+        }
+        for (int i = 0; i < commands.length() && applied < stopAt; i++) {
+            char command = commands.charAt(i);
+            if (Character.isWhitespace(command)) {
+                continue;
+            }
+            Direction direction = toDirection(command);
+            if (direction != null) {
+                MoveDelta delta = state.move(direction);
+                if (delta != null) {
+                    if (moveCount == moves.length) {
+                        moves = Arrays.copyOf(moves, 2 * moves.length);
+                    }
+                    moves[moveCount++] = delta;
+                }
+            } else if (command == Streamline.u.charAt(0)) {
+                if (moveCount > 0) {
+                    state.undo(moves[--moveCount]);
+                    moves[moveCount] = null;
+                }
+            } else {
+                throw new IllegalArgumentException("unknown command '"
+                        + command + "' at " + i);
+            }
+            applied++;
+            if (trace != null) {
+                trace.append(command).append(GameState.NEWLINE_CHAR);
+                ConsoleRenderer.render(state, trace);
+            }
+        }
+        return state;
+    }
+
+    /** @return the direction of a move command, or null if the command
+      *         is not a move
+      * */
+    static Direction toDirection(char command) {
+        switch (command) {
+            case 'w':
+                return Direction.UP;
+            case 'a':
+                return Direction.LEFT;
+            case 's':
+                return Direction.DOWN;
+            case 'd':
+                return Direction.RIGHT;
+            default:
+                return null;
+        }
+    }
+
+    /** Replay the recording given on the command line */
+    public static void main(String[] args) throws IOException {
+        Replay replay = new Replay();
+        int next = 0;
+        try {
+            while (next < args.length) {
+                if (args[next].equals(STEPS_FLAG) && next + 1 < args.length) {
+                    replay.stopAt = Integer.parseInt(args[next + 1]);
+                    next += 2;
+                } else if (args[next].equals(VERBOSE_FLAG)) {
+                    replay.trace = new BufferedWriter(
+                        new OutputStreamWriter(System.out));
+                    next++;
+                } else {
+                    break;
+                }
+            }
+        } catch (NumberFormatException e) {
+            System.out.print(USAGE);
+            return;
+        }
+        int remaining = args.length - next;
+        if (remaining < 1 || remaining > 2 || replay.stopAt < 0) {
+            System.out.print(USAGE);
+            return;
+        }
+        for (int i = next; i < args.length; i++) {
+            if (!new File(args[i]).exists()) {
+                System.out.printf("File %s does not exist. Exiting...\n",
+                    args[i]);
+                return;
+            }
+        }
+
+        Recording recording = readRecording(new File(args[next]));
+        long startTime = System.nanoTime();
+        GameState result = replay.run(recording.level, recording.commands);
+        long elapsed = System.nanoTime() - startTime;
+        if (replay.trace != null) {
+            ((Writer) replay.trace).flush();
+        }
+
+        if (replay.trace == null) {
+            System.out.print(result);
+        }
+        System.out.printf("Replayed %d commands in %.3f ms (%.1f million " +
+            "per second)\n", replay.applied, elapsed / 1e6,
+            replay.applied * 1e3 / Math.max(1, elapsed));
+        if (result.levelPassed) {
+            System.out.println("Level Passed!");
+        }
+        if (remaining == 2) {
+            File file = new File(args[next + 1]);
+            GameState expected;
+            if (SaveCodec.isSave(file)) {
+                expected = SaveCodec.load(file).currentState;
+            } else {
+                expected = Streamline.readLevel(file);
+                //a level file does not store whether it was passed
+                expected.levelPassed = result.levelPassed;
+            }
+            if (!expected.equals(result)) {
+                System.out.println("Final state does not match "
+                    + args[next + 1]);
+                System.exit(1);
+            }
+            System.out.println("Final state matches " + args[next + 1]);
+        }
+    }
+}
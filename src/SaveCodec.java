@@ -0,0 +1,283 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/** This class reads and writes saved games in a compact binary format
+  * that keeps the whole move history, so that moves can still be undone
+  * after a saved game is loaded.
+  *
+  * All numbers are big-endian. A save starts with a 32 byte header
+  * (MAGIC, VERSION, height, width, playerRow, playerCol, goalRow,
+  * goalCol), where the player location is the one before the first
+  * move. It is followed by the number of moves, the cells of the board
+  * before the first move with CELL_BITS bits per cell in row-major
+  * order, and the moves with MOVE_BITS bits each, both packed into longs.
+  * The last 4 bytes are the CRC32 of everything before them.
+  *
+  * A save is written to a temporary file in the same directory, which
+  * then replaces the old save in a single atomic rename, so a crash
+  * never leaves a truncated save behind. The directory is synced after
+  * the rename, so that the rename itself is not lost in a crash.
+  * */
+public class SaveCodec {
+
+    static final int MAGIC = 0x534C5356;     // "SLSV"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    static final int COUNT_BYTES = Integer.BYTES;
+    static final int CHECKSUM_BYTES = Integer.BYTES;
+
+    static final int CELL_BITS = 2;
+    static final int MOVE_BITS = 2;
+    static final int SPACE_CELL = 0;
+    static final int TRAIL_CELL = 1;
+    static final int OBSTACLE_CELL = 2;
+
+    // Writes saves in the background, in the order they were made
+    static final ExecutorService SAVER =
+        Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "game-saver");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    /** Check whether a file starts like a save
+      * @param file the file to check
+      * @return true if the file starts with MAGIC
+      * */
+    static boolean isSave(File file) {
+        try (DataInputStream input = new DataInputStream(
+                new FileInputStream(file))) {
+            return input.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** @return the number of longs that hold count values of bits each */
+    static int packedLongs(long count, int bits) {
+        return (int) ((count * bits + Long.SIZE - 1) / Long.SIZE);
+    }
+
+    /** Encode a game, from the oldest state its history can restore up
+      * to its current state
+      * @param game the game to encode
+      * @return the save, ready to be written
+      * */
+    static ByteBuffer encode(Streamline game) {
+        History history = game.history;
+        GameState initial = history.stateAt(history.oldest());
+        Board board = initial.board;
+        int height = board.getHeight();
+        int width = board.getWidth();
+        int moves = history.size() - history.oldest();
+        int cellLongs = packedLongs((long) height * width, CELL_BITS);
+        int moveLongs = packedLongs(moves, MOVE_BITS);
+
+        ByteBuffer save = ByteBuffer.allocate(HEADER_BYTES + COUNT_BYTES
+                + (cellLongs + moveLongs) * Long.BYTES + CHECKSUM_BYTES);
+        save.putInt(MAGIC).putInt(VERSION).putInt(height).putInt(width)
+                .putInt(initial.playerRow).putInt(initial.playerCol)
+                .putInt(initial.goalRow).putInt(initial.goalCol)
+                .putInt(moves);
+
+        //pack the cells, then the direction of every move
+        long packed = 0;
+        int used = 0;
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                int cell = board.isObstacle(i, j) ? OBSTACLE_CELL
+                        : board.isTrail(i, j) ? TRAIL_CELL : SPACE_CELL;
+                packed |= (long) cell << used;
+                used += CELL_BITS;
+                if (used == Long.SIZE) {
+                    save.putLong(packed);
+                    packed = 0;
+                    used = 0;
+                }
+            }
+        }
+        if (used > 0) {
+            save.putLong(packed);
+            packed = 0;
+            used = 0;
+        }
+        for (MoveDelta delta : history.deltas) {
+            packed |= (long) delta.direction.ordinal() << used;
+            used += MOVE_BITS;
+            if (used == Long.SIZE) {
+                save.putLong(packed);
+                packed = 0;
+                used = 0;
+            }
+        }
+        if (used > 0) {
+            save.putLong(packed);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(save.array(), 0, save.position());
+        save.putInt((int) crc.getValue());
+        return save.flip();
+    }
+
+    /** Decode a save into a game whose history holds every saved move
+      * @param save the whole save
+      * @return the game
+      * @throws IOException if the save is broken
+      * */
+    static Streamline decode(ByteBuffer save) throws IOException {
+        if (save.remaining() < HEADER_BYTES + COUNT_BYTES + CHECKSUM_BYTES
+                || save.getInt(0) != MAGIC) {
+            throw new IOException("not a saved game");
+        }
+        if (save.getInt(Integer.BYTES) != VERSION) {
+            throw new IOException("unsupported version "
+                    + save.getInt(Integer.BYTES));
+        }
+        int end = save.limit() - CHECKSUM_BYTES;
+        ByteBuffer body = save.duplicate().position(0).limit(end);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if ((int) crc.getValue() != save.getInt(end)) {
+            throw new IOException("checksum does not match");
+        }
+
+        save.position(2 * Integer.BYTES);
+        int height = save.getInt();
+        int width = save.getInt();
+        int playerRow = save.getInt();
+        int playerCol = save.getInt();
+        int goalRow = save.getInt();
+        int goalCol = save.getInt();
+        int moves = save.getInt();
+        if (height < 0 || width < 0 || moves < 0
+                || save.position() + (packedLongs((long) height * width,
+                    CELL_BITS) + (long) packedLongs(moves, MOVE_BITS))
+                    * Long.BYTES != end) {
+            throw new IOException("wrong length");
+        }
+
+        GameState state = new GameState(height, width, playerRow, playerCol,
+                goalRow, goalCol);
+        long packed = 0;
+        int used = Long.SIZE;
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                if (used == Long.SIZE) {
+                    packed = save.getLong();
+                    used = 0;
+                }
+                int cell = (int) (packed >>> used) & ((1 << CELL_BITS) - 1);
+                used += CELL_BITS;
+                if (cell == OBSTACLE_CELL) {
+                    state.board.set(i, j, GameState.OBSTACLE_CHAR);
+                } else if (cell == TRAIL_CELL) {
+                    state.board.set(i, j, GameState.TRAIL_CHAR);
+                }
+            }
+        }
+
+        //make the moves again so that the history holds them
+        Streamline game = new Streamline(state);
+        Direction[] directions = Direction.values();
+        used = Long.SIZE;
+        for (int i = 0; i < moves; i++) {
+            if (used == Long.SIZE) {
+                packed = save.getLong();
+                used = 0;
+            }
+            int move = (int) (packed >>> used) & ((1 << MOVE_BITS) - 1);
+            used += MOVE_BITS;
+            int before = game.history.size();
+            game.recordAndMove(directions[move]);
+            if (game.history.size() == before) {
+                throw new IOException("move " + i + " does not change the "
+                        + "board");
+            }
+        }
+        return game;
+    }
+
+    /** Write a save to a file, replacing it atomically
+      * @param save the save, as returned by encode
+      * @param file the file to write
+      * @throws IOException if the file cannot be written
+      * */
+    static void write(ByteBuffer save, File file) throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(),
+                target.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp,
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer bytes = save.duplicate();
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                //the data has to be on disk before the rename is
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            syncDirectory(target.getParent());
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /** Sync a directory, so that the files renamed into it stay there
+      * after a crash. Platforms that cannot open a directory, such as
+      * Windows, do not need this and are skipped.
+      * @param directory the directory to sync
+      * */
+    static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory,
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            //the rename cannot be made any more durable here
+        }
+    }
+
+    /** Save a game to a file
+      * @param game the game to save
+      * @param file the file to write
+      * @throws IOException if the file cannot be written
+      * */
+    static void save(Streamline game, File file) throws IOException {
+        write(encode(game), file);
+    }
+
+    /** Load a save with a single read of the whole file
+      * @param file the file to read
+      * @return the saved game
+      * @throws IOException if the file cannot be read or is broken
+      * */
+    static Streamline load(File file) throws IOException {
+        ByteBuffer save;
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large");
+            }
+            save = ByteBuffer.allocate((int) size);
+            while (save.hasRemaining() && channel.read(save) >= 0) {
+                //a single read unless the channel returns less
+            }
+        }
+        try {
+            return decode(save.flip());
+        } catch (IOException e) {
+            throw new IOException(file + ": " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,454 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/** This class checks the game engine against itself on random boards,
+  * without starting the GUI. Every check compares a fast path with a
+  * simpler reference, and the program exits with status 1 as soon as
+  * one of them disagrees.
+  * */
+public class SelfCheck {
+
+    static final String USAGE =
+        "Usage: \n" +
+        "> java SelfCheck [seed]  - to run every check on random boards" +
+            " built from the seed\n";
+    static final long DEFAULT_SEED = 42;
+    static final int BOARDS = 2000;
+    static final int MOVES = 30;
+    static final int LONG_LINES = 20;
+    static final int HISTORY_MOVES = 4;
+    static final int SOLVED_LEVELS = 300;
+    static final int SOLVER_THREADS = 4;
+    static final int EXTERNAL_EVERY = 10;
+    static final long EXTERNAL_MEMORY = 1 << 10;
+    static final int PACKED_LEVELS = 200;
+    static final int GENERATED_LEVELS = 500;
+    static final int SAVED_GAMES = 200;
+    static final int JOURNALED_GAMES = 50;
+    static final int JOURNAL_SYNCS = 5;
+    static final int GENERATED_SIZE = 5;
+
+    /** Stop the check with a message if a condition does not hold
+      * @param condition what has to hold
+      * @param message what went wrong
+      * */
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    /** Build a random board with random obstacles, which may also be
+      * long and narrow so that rows and columns span several words
+      * @param random the source of all positions
+      * @return the board
+      * */
+    static GameState randomState(Random random) {
+        boolean wide = random.nextBoolean();
+        int height = 1 + random.nextInt(wide ? 8 : 130);
+        int width = 1 + random.nextInt(wide ? 130 : 8);
+        GameState state = new GameState(height, width,
+                random.nextInt(height), random.nextInt(width),
+                random.nextInt(height), random.nextInt(width));
+        int density = 2 + random.nextInt(30);
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                boolean player = i == state.playerRow && j == state.playerCol;
+                if (!player && random.nextInt(density) == 0) {
+                    state.board.set(i, j, GameState.OBSTACLE_CHAR);
+                }
+            }
+        }
+        return state;
+    }
+
+    /** @return the hash of a board built again cell by cell */
+    static long freshHash(Board board) {
+        Board fresh = new Board(board.getHeight(), board.getWidth());
+        for (int i = 0; i < board.getHeight(); i++) {
+            for (int j = 0; j < board.getWidth(); j++) {
+                fresh.set(i, j, board.get(i, j));
+            }
+        }
+        return fresh.zobrist;
+    }
+
+    /** Compare move with moveByRotation, and check that undo restores
+      * every earlier state and that the incremental hash stays right
+      * */
+    static void checkMoves(Random random) {
+        Direction[] directions = Direction.values();
+        for (int board = 0; board < BOARDS; board++) {
+            GameState state = randomState(random);
+            GameState reference = new GameState(state);
+            Deque<MoveDelta> deltas = new ArrayDeque<>();
+            Deque<GameState> before = new ArrayDeque<>();
+            for (int i = 0; i < MOVES; i++) {
+                Direction direction = directions[random.nextInt(
+                        directions.length)];
+                GameState copy = new GameState(state);
+                MoveDelta delta = state.move(direction);
+                reference.moveByRotation(direction);
+                check(state.equals(reference), "move " + direction
+                        + " differs from moveByRotation on board " + board
+                        + "\n" + copy);
+                check(state.board.zobrist == freshHash(state.board),
+                        "hash is stale after move on board " + board);
+                if (delta != null) {
+                    deltas.push(delta);
+                    before.push(copy);
+                } else {
+                    check(copy.equals(state), "a move that did nothing "
+                            + "changed board " + board);
+                }
+            }
+            while (!deltas.isEmpty()) {
+                state.undo(deltas.pop());
+                GameState expected = before.pop();
+                check(state.equals(expected)
+                        && state.zobristHash() == expected.zobristHash(),
+                        "undo does not restore board " + board);
+            }
+        }
+    }
+
+    /** Compare the slides read from the jump table with a scan of the
+      * bitsets, on the random boards and on single lines that are longer
+      * than a saturated run
+      * */
+    static void checkJumps(Random random) {
+        Direction[] directions = Direction.values();
+        for (int board = 0; board < BOARDS; board++) {
+            Board cells = randomState(random).board;
+            boolean line = board < LONG_LINES;
+            if (line) {
+                int length = JumpTable.SATURATED * (1 + random.nextInt(3))
+                        + random.nextInt(JumpTable.SATURATED);
+                cells = random.nextBoolean() ? new Board(1, length)
+                        : new Board(length, 1);
+                for (int i = random.nextInt(3); i > 0; i--) {
+                    int at = random.nextInt(length);
+                    cells.set(cells.getHeight() == 1 ? 0 : at,
+                            cells.getHeight() == 1 ? at : 0,
+                            GameState.OBSTACLE_CHAR);
+                }
+            }
+            for (int i = 0; i < (line ? MOVES : cells.getHeight()
+                    * cells.getWidth()); i++) {
+                int row = random.nextInt(cells.getHeight());
+                int col = random.nextInt(cells.getWidth());
+                Direction direction = directions[random.nextInt(
+                        directions.length)];
+                check(cells.freeRun(row, col, direction)
+                        == cells.scanFreeRun(row, col, direction),
+                        "jump table is wrong at " + row + " " + col + " "
+                        + direction + " on board " + board);
+            }
+        }
+    }
+
+    /** Push moves into histories whose budget holds a single keyframe
+      * and a few moves, and check that going over it forgets no more
+      * than the oldest quarter and that every move kept can be undone
+      * */
+    static void checkHistory(Random random) {
+        Direction[] directions = Direction.values();
+        for (int board = 0; board < BOARDS; board++) {
+            GameState state = randomState(random);
+            History history = new History(state, 0);
+            history.budget = history.keyframeBytes
+                    + HISTORY_MOVES * History.DELTA_BYTES;
+            List<GameState> states = new ArrayList<>();
+            states.add(new GameState(state));
+            for (int i = 0; i < MOVES; i++) {
+                MoveDelta delta = state.move(directions[random.nextInt(
+                        directions.length)]);
+                if (delta == null) {
+                    continue;
+                }
+                int held = history.size() - history.oldest() + 1;
+                history.push(delta, state);
+                states.add(new GameState(state));
+                check(history.size() - history.oldest() >= held * 3 / 4,
+                        "history forgot more than the oldest quarter on "
+                        + "board " + board);
+            }
+            check(history.stateAt(history.oldest()).equals(
+                    states.get(history.oldest())),
+                    "oldest state is wrong on board " + board);
+            while (history.last() != null) {
+                state.undo(history.pop());
+                check(state.equals(states.get(history.size())),
+                        "undo after forgetting moves differs on board "
+                        + board);
+            }
+        }
+    }
+
+    /** @return true if the moves pass the level */
+    static boolean passes(GameState start, List<Direction> moves) {
+        GameState state = new GameState(start);
+        for (Direction direction : moves) {
+            state.move(direction);
+        }
+        return state.levelPassed;
+    }
+
+    /** Check that every solver finds a solution of the same length, and
+      * that the parallel solver stays close to its state limit. Every
+      * EXTERNAL_EVERY level is also searched on disk, with so little
+      * memory that its states are sorted in many runs.
+      * */
+    static void checkSolvers(Random random) throws IOException {
+        for (int level = 0; level < SOLVED_LEVELS; level++) {
+            int height = 2 + random.nextInt(9);
+            int width = 2 + random.nextInt(9);
+            GameState state = new LevelGenerator(height, width,
+                    random.nextInt(height * width / 4 + 1), 1)
+                    .randomBoard(random);
+            StreamlineSolver solver = new StreamlineSolver();
+            List<Direction> moves = solver.solve(state);
+            List<Direction> parallel = solver.solveParallel(state,
+                    SOLVER_THREADS);
+            OffHeapSolver offHeapSolver = new OffHeapSolver();
+            offHeapSolver.exhaustive = true;
+            List<Direction> offHeap = offHeapSolver.solve(state);
+            if (level % EXTERNAL_EVERY == 0) {
+                ExternalSolver external = new ExternalSolver();
+                external.memoryLimit = EXTERNAL_MEMORY;
+                int length = external.solve(state);
+                check(length == offHeapSolver.solutionLength
+                        && external.statesSeen == offHeapSolver.statesSeen,
+                        "the search on disk differs on level " + level
+                        + "\n" + state);
+            }
+            check((moves == null) == (parallel == null)
+                    && (moves == null) == (offHeap == null),
+                    "solvers disagree on whether level " + level
+                    + " can be passed\n" + state);
+            if (moves == null) {
+                continue;
+            }
+            check(moves.size() == parallel.size()
+                    && moves.size() == offHeap.size(),
+                    "solvers disagree on the solution of level " + level
+                    + "\n" + state);
+            check(passes(state, moves) && passes(state, parallel)
+                    && passes(state, offHeap),
+                    "a solution does not pass level " + level);
+
+            solver.stateLimit = 1 + random.nextInt(20);
+            if (solver.solveParallel(state, SOLVER_THREADS) == null) {
+                check(solver.statesSeen < solver.stateLimit
+                        + Direction.values().length * SOLVER_THREADS,
+                        "parallel search saw " + solver.statesSeen
+                        + " states with a limit of " + solver.stateLimit);
+            }
+        }
+    }
+
+    /** Write random levels, some with trails, to a pack and check that
+      * each one decodes to the same state, and that broken sizes are
+      * refused before a board is allocated
+      * */
+    static void checkPack(Random random) throws IOException {
+        Path directory = Files.createTempDirectory("selfcheck");
+        try {
+            List<File> files = new ArrayList<>();
+            List<GameState> levels = new ArrayList<>();
+            for (int level = 0; level < PACKED_LEVELS; level++) {
+                GameState state = randomState(random);
+                for (int i = 0; i < random.nextInt(4); i++) {
+                    state.move(Direction.values()[random.nextInt(4)]);
+                }
+                File file = directory.resolve("level" + level).toFile();
+                Streamline.writeLevel(state, file);
+                files.add(file);
+                levels.add(Streamline.readLevel(file));
+            }
+            File packFile = directory.resolve("pack").toFile();
+            LevelPack.write(files, packFile);
+            LevelPack pack = new LevelPack(packFile);
+            check(pack.size() == levels.size(), "pack has " + pack.size()
+                    + " levels instead of " + levels.size());
+            for (int level = 0; level < levels.size(); level++) {
+                GameState expected = levels.get(level);
+                GameState decoded = pack.getLevel(level);
+                check(decoded.equals(expected)
+                        && decoded.zobristHash() == expected.zobristHash(),
+                        "level " + level + " changed in the pack\n"
+                        + expected + decoded);
+            }
+
+            //break the height of the first level in place
+            for (int height : new int[]{-1, Integer.MAX_VALUE}) {
+                try (FileChannel channel = FileChannel.open(
+                        packFile.toPath(), StandardOpenOption.WRITE)) {
+                    ByteBuffer value = ByteBuffer.allocate(Integer.BYTES);
+                    value.putInt(height).flip();
+                    channel.write(value, pack.buffer.getLong(
+                            LevelPack.HEADER_BYTES));
+                }
+                try {
+                    new LevelPack(packFile).getLevel(0);
+                    check(false, "pack accepted a height of " + height);
+                } catch (IllegalArgumentException e) {
+                    //expected
+                }
+            }
+        } finally {
+            try (DirectoryStream<Path> files =
+                    Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /** Play random moves and undos on a game
+      * @param game the game to play on
+      * @param count the number of commands
+      * */
+    static void playRandomly(Streamline game, Random random, int count) {
+        Direction[] directions = Direction.values();
+        for (int i = 0; i < count; i++) {
+            if (random.nextInt(4) == 0) {
+                game.undo();
+            } else {
+                game.recordAndMove(directions[random.nextInt(
+                        directions.length)]);
+            }
+        }
+    }
+
+    /** Save random games, load them again and check that they reach the
+      * same state with the same moves to undo, and that a save with a
+      * changed byte is refused
+      * */
+    static void checkSaves(Random random) throws IOException {
+        Path directory = Files.createTempDirectory("selfcheck");
+        File file = directory.resolve("save").toFile();
+        try {
+            for (int game = 0; game < SAVED_GAMES; game++) {
+                Streamline saved = new Streamline(randomState(random));
+                playRandomly(saved, random, random.nextInt(MOVES));
+                SaveCodec.save(saved, file);
+                Streamline loaded = SaveCodec.load(file);
+                check(loaded.currentState.equals(saved.currentState)
+                        && loaded.history.size() == saved.history.size(),
+                        "game " + game + " changed in the save");
+                while (saved.history.size() > 0) {
+                    saved.undo();
+                    loaded.undo();
+                    check(loaded.currentState.equals(saved.currentState),
+                            "undo differs after loading game " + game);
+                }
+
+                byte[] bytes = Files.readAllBytes(file.toPath());
+                bytes[random.nextInt(bytes.length)] ^= 1 + random.nextInt(255);
+                Files.write(file.toPath(), bytes);
+                try {
+                    SaveCodec.load(file);
+                    check(false, "a broken save of game " + game
+                            + " was loaded");
+                } catch (IOException e) {
+                    //expected
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file.toPath());
+            Files.delete(directory);
+        }
+    }
+
+    /** Journal random games that are compacted often, and check that
+      * the files restore the game at every sync, as after a crash, and
+      * after the journal is closed
+      * */
+    static void checkJournal(Random random) throws IOException {
+        Path directory = Files.createTempDirectory("selfcheck");
+        File snapshot = directory.resolve("journal").toFile();
+        try {
+            for (int game = 0; game < JOURNALED_GAMES; game++) {
+                Streamline played = new Streamline(randomState(random));
+                try (Journal journal = new Journal(played, snapshot)) {
+                    played.journal = journal;
+                    journal.compactLimit = 1 + random.nextInt(MOVES);
+                    for (int i = 0; i < JOURNAL_SYNCS; i++) {
+                        playRandomly(played, random, random.nextInt(MOVES));
+                        journal.sync();
+                        check(Journal.recover(snapshot).currentState.equals(
+                                played.currentState), "journal of game "
+                                + game + " does not restore it at sync " + i);
+                    }
+                }
+                check(Journal.recover(snapshot).currentState.equals(
+                        played.currentState), "journal of game " + game
+                        + " does not restore it after closing");
+            }
+        } finally {
+            Files.deleteIfExists(Journal.journalFile(snapshot).toPath());
+            Files.deleteIfExists(snapshot.toPath());
+            Files.delete(directory);
+        }
+    }
+
+    /** Check that a batch of small levels has no duplicates and that
+      * every level can be passed
+      * */
+    static void checkGenerator(Random random) {
+        LevelGenerator generator = new LevelGenerator(GENERATED_SIZE,
+                GENERATED_SIZE, GENERATED_SIZE, 2);
+        List<GameState> levels = generator.generateBatch(GENERATED_LEVELS,
+                random.nextLong());
+        check(new HashSet<>(levels).size() == levels.size(),
+                "the batch holds duplicate levels");
+        for (GameState level : levels) {
+            check(new StreamlineSolver().solve(level) != null,
+                    "a generated level cannot be passed\n" + level);
+        }
+    }
+
+    /** Run every check */
+    public static void main(String[] args) {
+        long seed = DEFAULT_SEED;
+        try {
+            if (args.length == 1) {
+                seed = Long.parseLong(args[0]);
+            } else if (args.length > 1) {
+                System.out.print(USAGE);
+                return;
+            }
+        } catch (NumberFormatException e) {
+            System.out.print(USAGE);
+            return;
+        }
+
+        try {
+            checkMoves(new Random(seed));
+            System.out.println("moves ok");
+            checkJumps(new Random(seed));
+            System.out.println("jumps ok");
+            checkHistory(new Random(seed));
+            System.out.println("history ok");
+            checkSolvers(new Random(seed));
+            System.out.println("solvers ok");
+            checkPack(new Random(seed));
+            System.out.println("pack ok");
+            checkSaves(new Random(seed));
+            System.out.println("saves ok");
+            checkJournal(new Random(seed));
+            System.out.println("journal ok");
+            checkGenerator(new Random(seed));
+            System.out.println("generator ok");
+        } catch (IllegalStateException | IOException e) {
+            System.out.println("FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
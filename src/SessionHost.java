@@ -0,0 +1,295 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/** This class hosts many independent Streamline games in one JVM. Every
+  * connection to a local socket is a session with its own Streamline, and
+  * every session is served by its own thread, a virtual thread where the
+  * JVM has them.
+  *
+  * The protocol is line based. The host greets a new session with
+  *
+  *     READY id height width
+  *
+  * and then answers each command line, one of w, a, s, d, u, o, q, with
+  * a single line:
+  *
+  *     OK row col        the player location after the command
+  *     PASSED row col    the same, once the level is passed
+  *     SAVED file        after o, the state was saved to file
+  *     BYE               after q, the session is closed
+  *     ERROR message     the command was not understood
+  *
+  * A session that sends nothing for the idle timeout is told EVICTED and
+  * closed.
+  * */
+public class SessionHost implements Closeable {
+
+    static final String USAGE =
+        "Usage: \n" +
+        "> java SessionHost <port> [level]      - to host sessions on the " +
+            "given local port,\n" +
+        "                                         each playing the level i" +
+            "n the given file\n" +
+        "                                         or a random level\n" +
+        "> java SessionHost -i s <port> [level] - to do the same, evicting" +
+            " sessions that are\n" +
+        "                                         idle for s seconds\n";
+    static final String IDLE_FLAG = "-i";
+
+    static final int DEFAULT_IDLE_SECONDS = 300;
+    static final int MAX_SESSIONS = 10000;
+    static final int BACKLOG = 1024;
+    static final String SAVE_FORMAT = "session%06d";
+
+    // Commands and answers are short, small buffers keep the memory of
+    // thousands of sessions low
+    static final int LINE_BUFFER_SIZE = 256;
+
+    // The memory the history of a single session may use
+    static final long SESSION_HISTORY_BUDGET = 64L << 10;
+
+    ServerSocket serverSocket;
+
+    // The level every session starts from, never changed. Sessions copy
+    // it concurrently, so it is a private copy whose jump table is built
+    // and whose bitsets are shared before the first session starts, and
+    // copying it writes nothing.
+    GameState level;
+
+    // Directory that o saves into
+    File saveDirectory;
+
+    int idleMillis = DEFAULT_IDLE_SECONDS * 1000;
+
+    // Runs one task per session
+    ExecutorService sessions;
+
+    // Sockets of the sessions that are open, so close() can end them
+    Map<Integer, Socket> openSockets = new ConcurrentHashMap<>();
+    AtomicInteger nextId = new AtomicInteger();
+
+    /** Start listening on a port of the loopback address
+      * @param port the port, 0 for any free port
+      * @param level the level every session starts from
+      * @param saveDirectory the directory that sessions save into
+      * @throws IOException if the port cannot be opened
+      * */
+    public SessionHost(int port, GameState level, File saveDirectory)
+            throws IOException {
+        this.level = new GameState(level);
+        this.level.board.jumpTable();
+        this.saveDirectory = saveDirectory;
+        this.serverSocket = new ServerSocket(port, BACKLOG,
+                InetAddress.getLoopbackAddress());
+        this.sessions = newSessionExecutor();
+    }
+
+    /** Create an executor that runs every task on a new virtual thread.
+      * Virtual threads are looked up by reflection, so that the host
+      * still runs on JVMs without them, on a cached pool of platform
+      * threads.
+      * @return the executor for the sessions
+      * */
+    static ExecutorService newSessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /** @return the port the host listens on */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /** Accept sessions until the host is closed */
+    public void serve() {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                //close() closes the server socket to stop accepting
+                if (serverSocket.isClosed()) {
+                    return;
+                }
+                e.printStackTrace();
+                continue;
+            }
+            int id = nextId.getAndIncrement();
+            try {
+                sessions.execute(() -> runSession(id, socket));
+            } catch (RejectedExecutionException e) {
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    /** Serve a single session until it quits, goes idle or breaks
+      * @param id the number of the session
+      * @param socket the connection of the session
+      * */
+    void runSession(int id, Socket socket) {
+        openSockets.put(id, socket);
+        try (BufferedReader input = new BufferedReader(new InputStreamReader(
+                socket.getInputStream()), LINE_BUFFER_SIZE);
+             Writer output = new BufferedWriter(new OutputStreamWriter(
+                socket.getOutputStream()), LINE_BUFFER_SIZE)) {
+            if (openSockets.size() > MAX_SESSIONS) {
+                reply(output, "ERROR too many sessions");
+                return;
+            }
+            socket.setSoTimeout(idleMillis);
+            socket.setTcpNoDelay(true);
+
+            //every session plays its own copy of the level
+            Streamline game = new Streamline(new GameState(level),
+                    SESSION_HISTORY_BUDGET);
+            reply(output, "READY " + id + " " + level.board.getHeight()
+                    + " " + level.board.getWidth());
+
+            try {
+                String line;
+                while ((line = input.readLine()) != null) {
+                    String answer = execute(id, game, line.trim());
+                    if (answer == null) {
+                        reply(output, "BYE");
+                        return;
+                    }
+                    reply(output, answer);
+                }
+            } catch (SocketTimeoutException e) {
+                //the session was idle for too long
+                reply(output, "EVICTED idle");
+            }
+        } catch (IOException e) {
+            //the client went away, nothing to tell it
+        } finally {
+            openSockets.remove(id);
+            closeQuietly(socket);
+        }
+    }
+
+    /** Apply a single command to the game of a session
+      * @param id the number of the session
+      * @param game the game of the session
+      * @param command the command line
+      * @return the answer line, or null if the session quits
+      * */
+    String execute(int id, Streamline game, String command) {
+        switch (command) {
+            case Streamline.w:
+                game.recordAndMove(Direction.UP);
+                break;
+            case Streamline.a:
+                game.recordAndMove(Direction.LEFT);
+                break;
+            case Streamline.s:
+                game.recordAndMove(Direction.DOWN);
+                break;
+            case Streamline.d:
+                game.recordAndMove(Direction.RIGHT);
+                break;
+            case Streamline.u:
+                game.undo();
+                break;
+            case Streamline.o:
+                return save(id, game);
+            case Streamline.q:
+                return null;
+            default:
+                return "ERROR unknown command " + command;
+        }
+        GameState state = game.currentState;
+        return (state.levelPassed ? "PASSED " : "OK ") + state.playerRow
+                + " " + state.playerCol;
+    }
+
+    /** Save the game of a session to its own file */
+    String save(int id, Streamline game) {
+        File file = new File(saveDirectory, String.format(SAVE_FORMAT, id));
+        try {
+            SaveCodec.save(game, file);
+            return "SAVED " + file.getPath();
+        } catch (IOException e) {
+            return "ERROR cannot save: " + e.getMessage();
+        }
+    }
+
+    static void reply(Writer output, String line) throws IOException {
+        output.write(line);
+        output.write('\n');
+        output.flush();
+    }
+
+    static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            //nothing left to do
+        }
+    }
+
+    /** @return the number of sessions that are open */
+    public int sessionCount() {
+        return openSockets.size();
+    }
+
+    /** Stop accepting sessions and close every open one */
+    @Override
+    public void close() {
+        closeQuietly(serverSocket);
+        for (Socket socket : openSockets.values()) {
+            closeQuietly(socket);
+        }
+        sessions.shutdown();
+    }
+
+    /** Host sessions on the port given on the command line */
+    public static void main(String[] args) throws IOException {
+        int idleSeconds = DEFAULT_IDLE_SECONDS;
+        int next = 0;
+        int port;
+        try {
+            if (args.length > 1 && args[0].equals(IDLE_FLAG)) {
+                idleSeconds = Integer.parseInt(args[1]);
+                next = 2;
+            }
+            if (args.length - next < 1 || args.length - next > 2
+                    || idleSeconds < 1) {
+                System.out.print(USAGE);
+                return;
+            }
+            port = Integer.parseInt(args[next]);
+        } catch (NumberFormatException e) {
+            System.out.print(USAGE);
+            return;
+        }
+
+        GameState level;
+        if (args.length - next == 2) {
+            File file = new File(args[next + 1]);
+            if (!file.exists()) {
+                System.out.printf("File %s does not exist. Exiting...\n",
+                    args[next + 1]);
+                return;
+            }
+            level = Streamline.readLevel(file);
+        } else {
+            level = new Streamline().currentState;
+        }
+
+        try (SessionHost host = new SessionHost(port, level, new File("."))) {
+            host.idleMillis = idleSeconds * 1000;
+            System.out.printf("Hosting sessions on port %d\n",
+                host.getPort());
+            host.serve();
+        }
+    }
+}
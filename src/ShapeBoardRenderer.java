@@ -0,0 +1,102 @@
+import javafx.scene.shape.*;
+import javafx.scene.paint.*;
+
+/** This renderer creates one JavaFX shape for every cell of the board,
+  * a RoundedSquare for every obstacle and a Circle for every other cell
+  * that is only visible while the cell has a trail.
+  * */
+public class ShapeBoardRenderer implements BoardRenderer {
+
+    GuiStreamline gui;
+    Shape[][] grid;                     // Same dimensions as the game board
+
+    /** Create a renderer that draws into the level group of the GUI
+      * @param gui the GUI that shows the current level
+      * */
+    public ShapeBoardRenderer(GuiStreamline gui) {
+        this.gui = gui;
+    }
+
+    /**
+     * Destroy and recreate grid and all trail and obstacle shapes
+     * when a new level loads.
+     */
+    @Override
+    public void reset() {
+        GameState state = gui.game.currentState;
+        gui.levelGroup.getChildren().clear();
+        this.grid = new Shape[gui.getBoardHeight()][gui.getBoardWidth()];
+        for(int i = 0; i < grid.length;i++)
+        {
+            for (int j = 0; j < grid[0].length; j++)
+            {
+                double[] center = gui.boardIdxToScenePos(j,i);
+
+                if (state.board.isObstacle(i, j))
+                {
+                    grid[i][j] = new RoundedSquare
+                            (GuiStreamline.SQUARE_FRACTION
+                                    * gui.getSquareSize());
+                    grid[i][j].setFill(GuiStreamline.OBSTACLE_COLOR);
+
+                    ((RoundedSquare)(grid[i][j])).setCenterX(center[0]);
+                    ((RoundedSquare)(grid[i][j])).setCenterY(center[1]);
+                }
+                else if(state.board.isTrail(i, j))
+                {
+                    grid[i][j] = new Circle
+                            (GuiStreamline.TRAIL_RADIUS_FRACTION
+                                    * gui.getSquareSize());
+                    grid[i][j].setFill(GuiStreamline.TRAIL_COLOR);
+
+                    ((Circle)(grid[i][j])).setCenterX(center[0]);
+                    ((Circle)(grid[i][j])).setCenterY(center[1]);
+                }
+                else{
+                    grid[i][j] = new Circle
+                            (GuiStreamline.TRAIL_RADIUS_FRACTION
+                                    * gui.getSquareSize());
+                    grid[i][j].setFill(Color.TRANSPARENT);
+
+                    ((Circle)(grid[i][j])).setCenterX(center[0]);
+                    ((Circle)(grid[i][j])).setCenterY(center[1]);
+                }
+                gui.levelGroup.getChildren().add(grid[i][j]);
+
+            }
+        }
+    }
+
+    /**
+     * Sets the fill color of all trail Circles making them visible or not
+     * depending on if that board position equals TRAIL_CHAR.
+     */
+    @Override
+    public void redrawAll() {
+        for(int i = 0; i < grid.length;i++)
+        {
+            for(int j = 0; j < grid[0].length; j++)
+            {
+                cellChanged(i, j);
+            }
+        }
+    }
+
+    /**
+     * Sets the fill color of a single trail Circle.
+     * @param row the board row of the cell
+     * @param col the board column of the cell
+     */
+    @Override
+    public void cellChanged(int row, int col) {
+        char cell = gui.game.currentState.board.get(row, col);
+        if(cell == GameState.TRAIL_CHAR)
+        {
+            grid[row][col].setFill(GuiStreamline.TRAIL_COLOR);
+        }
+        else if(cell == GameState.SPACE_CHAR)
+        {
+            grid[row][col].setFill(Color.TRANSPARENT);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+import java.nio.LongBuffer;
+import java.util.*;
+
+/** This class is a bitset that its copies share until one of them
+  * writes. The words are kept in tiles of TILE_WORDS words; a copy only
+  * copies the references to the tiles, and a tile is copied the first
+  * time a bitset that shares it changes it. Tiles that were never written
+  * are the same tile of zeros. A copy therefore costs one reference per
+  * tile, and memory in proportion to what changed since.
+  *
+  * Copying a bitset that owns any of its tiles changes it, since the
+  * tiles become shared. Only a bitset that owns none of them, such as a
+  * copy that was never written, may be copied by several threads at
+  * once, and only as long as no thread writes it.
+  * */
+public class SharedBits {
+
+    final static int WORD_SHIFT = 6;
+    final static int WORD_BITS = 1 << WORD_SHIFT;
+    final static int TILE_SHIFT = 3;
+    final static int TILE_WORDS = 1 << TILE_SHIFT;
+    final static int TILE_MASK = TILE_WORDS - 1;
+
+    // Shared by every tile that was never written, never written itself
+    static final long[] ZERO_TILE = new long[TILE_WORDS];
+
+    // Number of words of the bitset
+    int words;
+
+    long[][] tiles;
+
+    // owned[t] is true if no other bitset uses tiles[t], so that it can
+    // be written in place
+    boolean[] owned;
+
+    // false if owned[] is known to be all false
+    boolean ownsAny;
+
+    /** Create a bitset with all bits clear
+      * @param words the number of words of the bitset
+      * */
+    public SharedBits(int words) {
+        this.words = words;
+        this.tiles = new long[(words + TILE_MASK) >>> TILE_SHIFT][];
+        Arrays.fill(tiles, ZERO_TILE);
+        this.owned = new boolean[tiles.length];
+    }
+
+    /** Create a copy that shares every tile with the other bitset
+      * @param other the bitset to copy
+      * */
+    public SharedBits(SharedBits other) {
+        this.words = other.words;
+        this.tiles = other.tiles.clone();
+        this.owned = new boolean[tiles.length];
+        //from now on neither bitset may write a tile in place
+        if (other.ownsAny) {
+            Arrays.fill(other.owned, false);
+            other.ownsAny = false;
+        }
+    }
+
+    /** @return the word with the given index */
+    long word(int index) {
+        return tiles[index >>> TILE_SHIFT][index & TILE_MASK];
+    }
+
+    /** Return the tile that holds the given word, after copying it if
+      * it is shared
+      * */
+    long[] writableTile(int index) {
+        int tile = index >>> TILE_SHIFT;
+        if (!owned[tile]) {
+            tiles[tile] = tiles[tile].clone();
+            owned[tile] = true;
+            ownsAny = true;
+        }
+        return tiles[tile];
+    }
+
+    /** Replace the word with the given index */
+    void setWord(int index, long value) {
+        if (word(index) != value) {
+            writableTile(index)[index & TILE_MASK] = value;
+        }
+    }
+
+    /** @return true if the bit with the given index is set */
+    public boolean get(int index) {
+        return (word(index >>> WORD_SHIFT) & (1L << index)) != 0;
+    }
+
+    public void set(int index) {
+        int word = index >>> WORD_SHIFT;
+        writableTile(word)[word & TILE_MASK] |= 1L << index;
+    }
+
+    public void clear(int index) {
+        int word = index >>> WORD_SHIFT;
+        writableTile(word)[word & TILE_MASK] &= ~(1L << index);
+    }
+
+    /** Set all bits with index in [from, to) */
+    public void setRange(int from, int to) {
+        int word = from >>> WORD_SHIFT;
+        int lastWord = (to - 1) >>> WORD_SHIFT;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> -to;
+        if (word == lastWord) {
+            setWord(word, word(word) | (firstMask & lastMask));
+            return;
+        }
+        setWord(word, word(word) | firstMask);
+        for (word++; word < lastWord; word++) {
+            setWord(word, -1L);
+        }
+        setWord(lastWord, word(lastWord) | lastMask);
+    }
+
+    /** Clear all bits with index in [from, to) */
+    public void clearRange(int from, int to) {
+        int word = from >>> WORD_SHIFT;
+        int lastWord = (to - 1) >>> WORD_SHIFT;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> -to;
+        if (word == lastWord) {
+            setWord(word, word(word) & ~(firstMask & lastMask));
+            return;
+        }
+        setWord(word, word(word) & ~firstMask);
+        for (word++; word < lastWord; word++) {
+            setWord(word, 0L);
+        }
+        setWord(lastWord, word(lastWord) & ~lastMask);
+    }
+
+    /** Clear every bit */
+    public void clearAll() {
+        Arrays.fill(tiles, ZERO_TILE);
+        Arrays.fill(owned, false);
+        ownsAny = false;
+    }
+
+    /** @return true if no bit is set */
+    public boolean isEmpty() {
+        for (long[] tile : tiles) {
+            if (tile == ZERO_TILE) {
+                continue;
+            }
+            for (long word : tile) {
+                if (word != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Replace every word with the next words of a buffer
+      * @param source holds at least as many words as the bitset
+      * */
+    public void copyFrom(LongBuffer source) {
+        for (int word = 0; word < words; word++) {
+            setWord(word, source.get());
+        }
+    }
+
+    /** Put every word into a buffer
+      * @param target receives as many words as the bitset has
+      * */
+    public void copyTo(LongBuffer target) {
+        for (int word = 0; word < words; word++) {
+            target.put(word(word));
+        }
+    }
+
+    /** @return true if both bitsets have the same words, tiles that are
+      *         shared are not compared word by word
+      * */
+    public boolean sameBits(SharedBits other) {
+        if (words != other.words) {
+            return false;
+        }
+        for (int tile = 0; tile < tiles.length; tile++) {
+            if (tiles[tile] != other.tiles[tile]
+                    && !Arrays.equals(tiles[tile], other.tiles[tile])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the first bit index in [from, to) that is set in either
+      * of the two bitsets, or to if there is none
+      * */
+    static int nextSetBit(SharedBits first, SharedBits second, int from,
+                          int to) {
+        if (from >= to) {
+            return to;
+        }
+        int word = from >>> WORD_SHIFT;
+        int lastWord = (to - 1) >>> WORD_SHIFT;
+        long bits = (first.word(word) | second.word(word)) & (-1L << from);
+        while (bits == 0) {
+            if (word == lastWord) {
+                return to;
+            }
+            word++;
+            bits = first.word(word) | second.word(word);
+        }
+        int index = (word << WORD_SHIFT) + Long.numberOfTrailingZeros(bits);
+        return index < to ? index : to;
+    }
+
+    /** Return the last bit index in [to, from] that is set in either
+      * of the two bitsets, or to - 1 if there is none
+      * */
+    static int prevSetBit(SharedBits first, SharedBits second, int from,
+                          int to) {
+        if (from < to) {
+            return to - 1;
+        }
+        int word = from >>> WORD_SHIFT;
+        int firstWord = to >>> WORD_SHIFT;
+        long bits = (first.word(word) | second.word(word))
+                & (-1L >>> (WORD_BITS - 1 - (from & (WORD_BITS - 1))));
+        while (bits == 0) {
+            if (word == firstWord) {
+                return to - 1;
+            }
+            word--;
+            bits = first.word(word) | second.word(word);
+        }
+        int index = (word << WORD_SHIFT) + WORD_BITS - 1
+                - Long.numberOfLeadingZeros(bits);
+        return index >= to ? index : to - 1;
+    }
+
+    /** Return the first bit index in [from, to) that is set, or to if
+      * there is none
+      * */
+    static int nextSetBit(SharedBits bits, int from, int to) {
+        return nextSetBit(bits, bits, from, to);
+    }
+
+    /** Return the last bit index in [to, from] that is set, or to - 1
+      * if there is none
+      * */
+    static int prevSetBit(SharedBits bits, int from, int to) {
+        return prevSetBit(bits, bits, from, to);
+    }
+}
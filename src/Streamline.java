@@ -2,6 +2,8 @@
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 
 /** This class defines how the player controls the pieces of the
   * Streamline game and how the game is updated
@@ -18,12 +20,56 @@ public class Streamline {
     final static String u = "u";
     final static String o = "o";
     final static String q = "q";
+    final static String r = "r";
 
 
     final static String OUTFILE_NAME = "saved_streamline_game";
+    final static String RECORDING_NAME = "saved_streamline_recording";
+    final static String JOURNAL_NAME = "journaled_streamline_game";
+
+    static final String USAGE =
+        "Usage: \n" +
+        "> java Streamline [--ansi]             - to play a random level in" +
+            " the terminal\n" +
+        "> java Streamline [--ansi] <filename>  - to play the level in the" +
+            " given file\n" +
+        "With --ansi only the cells that changed are redrawn, using ANSI cu" +
+            "rsor movement.\n" +
+        "With --journal every move is kept on disk as it is made, and a ga" +
+            "me that was\n" +
+        "journaled before is resumed instead of starting the given level.\n";
+    static final String ANSI_FLAG = "--ansi";
+    static final String JOURNAL_FLAG = "--journal";
+
+    // Commands the recording may hold beyond twice the moves the history
+    // holds before it is started again
+    static final int MOVE_LOG_SLACK = 1 << 12;
 
     GameState currentState;
-    List<GameState> previousStates;
+
+    // The moves made on the level, for undo and for jumping back
+    History history;
+
+    // The level as it was before the first move, and every move and
+    // undo command given since then, in the format read by Replay. Once
+    // the history forgets moves, or the log grows well beyond the moves
+    // the history holds, the recording starts again at the oldest state
+    // the history can restore, so it stays within the history budget
+    GameState initialState;
+    StringBuilder moveLog;
+
+    // Number of moves made before initialState
+    int logBase;
+
+    // Told about every cell that a move or an undo changes, may be null
+    CellListener cellListener;
+
+    // Keeps every move and undo on disk as it is made, may be null
+    Journal journal;
+
+    // The last save that is written in the background, completed with
+    // the message that reports it, null once the message was taken
+    CompletableFuture<String> pendingSave;
 
     /** This is the no-argument constructor of Streamline
       * */
@@ -36,11 +82,27 @@ public class Streamline {
                 DEFAULT_HEIGHT-1,0,0,DEFAULT_WIDTH-1);
         //Add 3 random obstacles to the current state
         this.currentState.addRandomObstacles(3);
-        //Initialize previousStates to an empty ArrayList
-        this.previousStates = new ArrayList<>();
+        startLevel();
 
     }
 
+    /** This is the constructor that starts the game from the given state
+      * @param state the state to start from
+      * */
+    public Streamline(GameState state) {
+        this(state, History.DEFAULT_BUDGET);
+    }
+
+    /** This is the constructor that starts the game from the given state
+      * with a history that stays within the given budget
+      * @param state the state to start from
+      * @param historyBudget the number of bytes the history may use
+      * */
+    public Streamline(GameState state, long historyBudget) {
+        this.currentState = state;
+        startLevel(historyBudget);
+    }
+
     /** This is the constructor that takes
       * a filename and load it to the game
       * @param filename the name of file to load
@@ -59,9 +121,78 @@ public class Streamline {
       * @throws IOException
       * */
     protected void loadFromFile(String filename) throws IOException {
-
+        long start = Metrics.start();
         File file = new File(filename);
-        Scanner scan = new Scanner(file);
+        if (SaveCodec.isSave(file)) {
+            //a saved game comes with its history and recording
+            Streamline saved = SaveCodec.load(file);
+            currentState = saved.currentState;
+            history = saved.history;
+            initialState = saved.initialState;
+            moveLog = saved.moveLog;
+            logBase = saved.logBase;
+        } else {
+            currentState = readLevel(file);
+            startLevel();
+        }
+        Metrics.LOAD.recordSince(start);
+    }
+
+    /** Get ready to play the current state: build the jump table of
+      * its board now rather than on the first move, and start a new
+      * history and recording
+      * */
+    void startLevel() {
+        startLevel(History.DEFAULT_BUDGET);
+    }
+
+    /** Get ready to play the current state with a history that stays
+      * within the given budget
+      * @param historyBudget the number of bytes the history may use
+      * */
+    void startLevel(long historyBudget) {
+        currentState.board.jumpTable();
+        history = new History(currentState, historyBudget);
+        initialState = new GameState(currentState);
+        moveLog = new StringBuilder();
+        logBase = 0;
+    }
+
+    /** Read a level from a file, the file starts with the height and
+      * width of the board, the player location and the goal location,
+      * followed by one line for each row of the board
+      * @param file the file to read
+      * @return the GameState stored in the file
+      * @throws IOException if the file cannot be read
+      * @throws RuntimeException if the file is not properly formatted
+      * */
+    static GameState readLevel(File file) throws IOException {
+        try (Scanner scan = new Scanner(file)) {
+            //every cell takes at least one character of the file, so a
+            //broken header cannot make the board larger than the file
+            return readLevel(scan, file.length());
+        }
+    }
+
+    /** Read a level in the format of a level file
+      * @param scan the Scanner positioned at the start of the level, it
+      *             is left at the line after the last row
+      * @return the GameState that was read
+      * @throws RuntimeException if the level is not properly formatted
+      * */
+    static GameState readLevel(Scanner scan) {
+        return readLevel(scan, Long.MAX_VALUE);
+    }
+
+    /** Read a level in the format of a level file, refusing boards with
+      * more cells than the input can hold
+      * @param scan the Scanner positioned at the start of the level, it
+      *             is left at the line after the last row
+      * @param maxCells the largest number of cells the level may have
+      * @return the GameState that was read
+      * @throws RuntimeException if the level is not properly formatted
+      * */
+    static GameState readLevel(Scanner scan, long maxCells) {
         //read in the content of file and
         // initialize the respective instance variables
         int height = scan.nextInt();
@@ -71,22 +202,27 @@ public class Streamline {
         int goalRow = scan.nextInt();
         int goalCol = scan.nextInt();
         scan.nextLine();
-        currentState =
-                new GameState(height,width,playerRow,playerCol,goalRow,goalCol);
+        if (height < 0 || width < 0 || (long) height * width > maxCells) {
+            throw new IllegalArgumentException("Board of " + height + "x"
+                    + width + " cells does not fit in " + maxCells
+                    + " characters");
+        }
+        GameState state = new GameState(height, width, playerRow,
+                playerCol, goalRow, goalCol);
 
         for(int i = 0;  i < height; i++){
             String line = scan.nextLine();
             for(int j = 0; j< width; j++){
-                currentState.board[i][j] = line.charAt(j);
+                state.board.set(i, j, line.charAt(j));
             }
         }
-        previousStates = new ArrayList<>();
-
+        return state;
     }
 
-    /** This method first updates previousStates by saving a copy of the
-      * current state into the list, and then makes a move in the given
-      * direction on currentState.If direction is null, do nothing.
+    /** This method makes a move in the given direction on currentState
+      * and records what the move changed in history. Moves that do
+      * not change anything are not recorded. If direction is null,
+      * do nothing.
       * @param direction the direction to move
       * */
     void recordAndMove(Direction direction) {
@@ -94,33 +230,135 @@ public class Streamline {
         if(direction == null){
             return;
         }
-        GameState currentStateCp = new GameState(currentState);
-        //move towards the direction
-        currentState.move(direction);
-        //when the previousStates has at least one element,
-        //check if the currentState is equal to the GameState before move
-        //if yes, return, do not update previousStates
-        if(previousStates.size()>0 &&
-                currentState.equals(currentStateCp))
+        long start = Metrics.start();
+        long allocated = Metrics.allocatedBytes();
+        //move towards the direction, a null delta means
+        //the player did not move and there is nothing to record
+        MoveDelta delta = currentState.move(direction);
+        if(delta != null)
+        {
+            history.push(delta, currentState);
+            moveLog.append(toCommand(direction));
+            trimMoveLog();
+            notifyChangedCells(delta);
+            if(journal != null)
+            {
+                journal.append(toCommand(direction).charAt(0));
+            }
+        }
+        if(Metrics.ENABLED)
+        {
+            Metrics.RECORD_AND_MOVE.recordSince(start);
+            Metrics.MOVE_BYTES.record(Metrics.allocatedBytes() - allocated);
+            Metrics.HISTORY_SIZE.record(history.size());
+        }
+    }
+
+    /** Undo the most recent move made by the player
+      * */
+    void undo() {
+        long start = Metrics.start();
+        //remove the last move from the history and revert it
+        //on currentState, unless there is no move left to undo
+        MoveDelta delta = history.pop();
+        if(delta != null)
+        {
+            moveLog.append(u);
+            trimMoveLog();
+            currentState.undo(delta);
+            notifyChangedCells(delta);
+            if(journal != null)
+            {
+                journal.append(u.charAt(0));
+            }
+        }
+        Metrics.UNDO.recordSince(start);
+    }
+
+    /** Go back to the state after the given number of moves, as if
+      * every later move was undone. The later moves are dropped from the
+      * history, so the game can only go back this way, not forward again.
+      * The cell listener is not told about the cells that changed.
+      * @param move the number of moves to keep, it is clamped to the
+      *             moves that the history still holds
+      * */
+    void goTo(int move) {
+        int target = Math.max(history.oldest(), Math.min(move,
+                history.size()));
+        if(target == history.size())
         {
             return;
         }
-        //if no, add the GameState before move to previousStates
-        previousStates.add(currentStateCp);
+        //record the jump as the undos it stands for
+        for(int i = target; i < history.size(); i++)
+        {
+            moveLog.append(u);
+        }
+        int dropped = history.size() - target;
+        currentState = history.stateAt(target);
+        history.truncate(target);
+        trimMoveLog();
+        if(journal != null)
+        {
+            journal.append(u.charAt(0), dropped);
+        }
+    }
 
+    /** Start the recording again at the oldest state the history can
+      * restore, followed by the moves it holds, once the history forgot
+      * the moves the recording starts with or the recording is much
+      * longer than those moves. Undone moves are left out of the new
+      * recording, which still leads to the current state.
+      * */
+    void trimMoveLog() {
+        int held = history.size() - history.oldest();
+        if(history.oldest() == logBase
+                && moveLog.length() <= 2L * held + MOVE_LOG_SLACK)
+        {
+            return;
+        }
+        initialState = history.stateAt(history.oldest());
+        logBase = history.oldest();
+        moveLog.setLength(0);
+        for(MoveDelta delta : history.deltas)
+        {
+            moveLog.append(toCommand(delta.direction));
+        }
+    }
 
+    /** Set the listener that is told about every cell that a move or
+      * an undo changes
+      * @param listener the listener, or null to remove it
+      * */
+    void setCellListener(CellListener listener) {
+        this.cellListener = listener;
     }
 
-    /** Undo the most recent move made by the player
+    /** Tell the cell listener about the cells changed by a move
+      * @param delta the move that was made or undone
       * */
-    void undo() {
-        //when the previousStates has at least one element
-        if(previousStates.size()>0)
+    void notifyChangedCells(MoveDelta delta) {
+        if(cellListener != null)
         {
-            //update the previousStates, currentState by removing
-            //the last element on the list, and assign it to currentState
-            currentState = previousStates.get(previousStates.size() - 1);
-            previousStates.remove(previousStates.size() - 1);
+            delta.forEachChangedCell(cellListener);
+        }
+    }
+
+    /** Return the command that moves the player in the given direction
+      * @param direction the direction to move
+      * @return one of w, a, s, d
+      * */
+    static String toCommand(Direction direction) {
+        switch(direction)
+        {
+            case UP:
+                return w;
+            case LEFT:
+                return a;
+            case DOWN:
+                return s;
+            default:
+                return d;
         }
     }
 
@@ -128,84 +366,258 @@ public class Streamline {
       * Streamline game and the game is updated when the player makes moves.
       * */
     void play() {
+        play(false);
+    }
 
-        while(true)
+    /** This method enables the player to control the pieces of the
+      * Streamline game and the game is updated when the player makes moves.
+      * @param ansi true to redraw only the changed cells of the board
+      *             after the first frame, using ANSI escape codes
+      * */
+    void play(boolean ansi) {
+        //a single Scanner for the whole game, and a buffered writer
+        //that the board is drawn into one character at a time
+        Scanner scan = new Scanner(System.in);
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+        ConsoleRenderer console = null;
+        if(ansi)
         {
-            boolean quit;
-            //check if the game is passed
-            if(currentState.levelPassed)
-            {
-                System.out.println(currentState.toString());
-                System.out.println("Level Passed!");
-                break;
-            }
-            //print the currentState of game and prompt
-            // the user to input next move
-            System.out.println(currentState.toString());
-            System.out.print("> ");
-            Scanner scan = new Scanner(System.in);
-            String str = scan.next();
-
-            //read in the input and check which of the action case it is
-            //make the move accordingly
-            switch(str)
+            console = new ConsoleRenderer();
+            setCellListener(console);
+        }
+
+        try {
+            while(true)
             {
-                case w:
-                    recordAndMove(Direction.UP);
-                    break;
-                case a:
-                    recordAndMove(Direction.LEFT);
+                //print the currentState of game
+                if(console != null) {
+                    console.renderChanges(currentState, out);
+                } else {
+                    ConsoleRenderer.render(currentState, out);
+                    out.write(GameState.NEWLINE_CHAR);
+                }
+                //check if the game is passed
+                if(currentState.levelPassed)
+                {
+                    out.write("Level Passed!\n");
+                    out.flush();
                     break;
-                case s:
-                    recordAndMove(Direction.DOWN);
+                }
+                //a save is reported here rather than by the thread that
+                //wrote it, so that it never breaks into a frame
+                String saved = takeSaveResult(false);
+                if(saved != null) {
+                    out.write(saved);
+                    out.write(GameState.NEWLINE_CHAR);
+                }
+                //prompt the user to input next move
+                out.write("> ");
+                out.flush();
+                if(!scan.hasNext()) {
                     break;
-                case d:
-                    recordAndMove(Direction.RIGHT);
-                    break;
-                case u:
-                    undo();
-                    break;
-                case o:
-                    saveToFile();
-                    break;
-                case q:
-                    quit = true;
-                    return;
-            }
+                }
+                String str = scan.next();
 
+                //read in the input and check which of the action case it is
+                //make the move accordingly
+                switch(str)
+                {
+                    case w:
+                        recordAndMove(Direction.UP);
+                        break;
+                    case a:
+                        recordAndMove(Direction.LEFT);
+                        break;
+                    case s:
+                        recordAndMove(Direction.DOWN);
+                        break;
+                    case d:
+                        recordAndMove(Direction.RIGHT);
+                        break;
+                    case u:
+                        undo();
+                        break;
+                    case o:
+                        saveToFile();
+                        break;
+                    case r:
+                        saveRecording();
+                        break;
+                    case q:
+                        return;
+                }
+            }
+        } catch(IOException e)
+        {
+            e.printStackTrace();
+        } finally {
+            if(console != null) {
+                setCellListener(null);
+            }
+            //the saver thread does not keep the JVM alive
+            String saved = takeSaveResult(true);
+            if(saved != null) {
+                System.out.println(saved);
+            }
         }
 
     }
 
-    /** This method writes the Streamline game
-      * to a file in a certain format
+    /** This method writes the Streamline game and its history to a
+      * file in the format of SaveCodec. The game is encoded right away
+      * and the file is written in the background, so the caller does
+      * not wait for the disk. Nothing is printed in the background, the
+      * caller reports the result on its own thread.
+      * @return the save, completed with the message that reports it
       * */
-    void saveToFile() {
-        try {
-            //write the game statics to a file in a certain format
-            PrintWriter output = new PrintWriter(new File(OUTFILE_NAME));
-            output.print(currentState.board.length);
-            output.print(" ");
-            output.println(currentState.board[0].length);
-            output.print(currentState.playerRow);
-            output.print(" ");
-            output.println(currentState.playerCol);
-            output.print(currentState.goalRow);
-            output.print(" ");
-            output.println(currentState.goalCol);
-            for(int i = 0; i < currentState.board.length;i++) {
-                output.println(currentState.board[i]);
+    CompletableFuture<String> saveToFile() {
+        ByteBuffer save = SaveCodec.encode(this);
+        pendingSave = CompletableFuture.supplyAsync(() -> {
+            try {
+                SaveCodec.write(save, new File(OUTFILE_NAME));
+                return "Saved current state to: " + OUTFILE_NAME;
+            } catch(IOException e)
+            {
+                return "Cannot save current state: " + e.getMessage();
             }
-            //close the file
-            output.close();
-            System.out.println("Saved current state to: " +
-                    "saved_streamline_game");
-            
+        }, SaveCodec.SAVER);
+        return pendingSave;
+    }
+
+    /** Take the message of the last save written in the background
+      * @param wait true to wait until the save is written
+      * @return the message, or null if there is no save or it is not
+      *         written yet
+      * */
+    String takeSaveResult(boolean wait) {
+        if(pendingSave == null || (!wait && !pendingSave.isDone()))
+        {
+            return null;
+        }
+        String message = pendingSave.join();
+        pendingSave = null;
+        return message;
+    }
+
+    /** This method writes the level as it was before the first move,
+      * followed by every move made since then, to a file
+      * */
+    void saveRecording() {
+        try {
+            writeRecording(initialState, moveLog, new File(RECORDING_NAME));
+            System.out.println("Saved recording to: " + RECORDING_NAME);
         } catch(IOException e)
         {
             e.printStackTrace();
         }
     }
 
+    /** Write a recording, which is a level file with one more line that
+      * holds the commands given on the level
+      * @param initial the level before the first command
+      * @param commands the commands, each one of w, a, s, d, u
+      * @param file the file to write to
+      * @throws IOException if the file cannot be written
+      * */
+    static void writeRecording(GameState initial, CharSequence commands,
+                               File file) throws IOException {
+        try (PrintWriter output = new PrintWriter(
+                new BufferedWriter(new FileWriter(file)))) {
+            writeLevel(initial, output);
+            output.append(commands);
+            output.println();
+        }
+    }
 
+    /** Write a GameState to a file in the format read by readLevel
+      * @param state the state to write
+      * @param file the file to write to
+      * @throws IOException if the file cannot be written
+      * */
+    static void writeLevel(GameState state, File file) throws IOException {
+        try (PrintWriter output = new PrintWriter(file)) {
+            writeLevel(state, output);
+        }
+    }
+
+    /** Write a GameState in the format read by readLevel
+      * @param state the state to write
+      * @param output where the level goes
+      * */
+    static void writeLevel(GameState state, PrintWriter output) {
+        //write the game statics to a file in a certain format
+        output.print(state.board.getHeight());
+        output.print(" ");
+        output.println(state.board.getWidth());
+        output.print(state.playerRow);
+        output.print(" ");
+        output.println(state.playerCol);
+        output.print(state.goalRow);
+        output.print(" ");
+        output.println(state.goalCol);
+        for(int i = 0; i < state.board.getHeight();i++) {
+            output.println(state.board.rowString(i));
+        }
+    }
+
+    /** Play a level in the terminal */
+    public static void main(String[] args) {
+        boolean ansi = false;
+        boolean journaled = false;
+        int next = 0;
+        for (; next < args.length && args[next].startsWith("--"); next++) {
+            if (args[next].equals(ANSI_FLAG)) {
+                ansi = true;
+            } else if (args[next].equals(JOURNAL_FLAG)) {
+                journaled = true;
+            } else {
+                System.out.print(USAGE);
+                return;
+            }
+        }
+        if (args.length - next > 1) {
+            System.out.print(USAGE);
+            return;
+        }
+        File snapshot = new File(JOURNAL_NAME);
+        Streamline game;
+        if (journaled && snapshot.isFile()) {
+            try {
+                game = Journal.recover(snapshot);
+                System.out.println("Resumed game from: " + JOURNAL_NAME);
+            } catch (IOException e) {
+                System.out.printf("Cannot resume %s: %s. Exiting...\n",
+                    JOURNAL_NAME, e.getMessage());
+                return;
+            }
+        } else if (next == args.length) {
+            game = new Streamline();
+        } else {
+            if (!new File(args[next]).exists()) {
+                System.out.printf("File %s does not exist. Exiting...\n",
+                    args[next]);
+                return;
+            }
+            game = new Streamline(args[next]);
+        }
+        if (game.currentState == null) {
+            return;
+        }
+
+        try {
+            if (journaled) {
+                game.journal = new Journal(game, snapshot);
+            }
+            //the journal is synced and closed even if the game fails
+            try {
+                game.play(ansi);
+            } finally {
+                if (game.journal != null) {
+                    game.journal.close();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 }
@@ -0,0 +1,320 @@
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** This class searches for the shortest sequence of moves that passes
+  * a Streamline level. It runs a breadth first search over GameState
+  * objects and keeps every state it has already seen in a hash based
+  * transposition table, so that each state is expanded only once.
+  * The search can also be spread over several threads with a
+  * ForkJoinPool.
+  * */
+public class StreamlineSolver {
+
+    static final String USAGE =
+        "Usage: \n" +
+        "> java StreamlineSolver <filename>       - to print the shortest " +
+            "solution of the game\n" +
+        "                                           stored in the specifie" +
+            "d file\n" +
+        "> java StreamlineSolver -t n <filename>  - to do the same with a " +
+            "search spread over\n" +
+        "                                           n threads\n" +
+        "> java StreamlineSolver -o [-a] <filename>  - to do the same keep" +
+            "ing all states off\n" +
+        "                                              the heap, and with " +
+            "-a to also count\n" +
+        "                                              every reachable sta" +
+            "te\n";
+    static final String THREADS_FLAG = "-t";
+    static final String OFF_HEAP_FLAG = "-o";
+    static final String ALL_FLAG = "-a";
+
+    /** A state reached during the search, linked back to the state
+      * it was reached from
+      * */
+    static class SearchNode {
+        GameState state;
+        SearchNode parent;
+        Direction direction;
+
+        SearchNode(GameState state, SearchNode parent, Direction direction) {
+            this.state = state;
+            this.parent = parent;
+            this.direction = direction;
+        }
+    }
+
+    // Number of distinct states seen by the last search
+    int statesSeen;
+
+    // The search gives up once it has seen this many states
+    int stateLimit = Integer.MAX_VALUE;
+
+    // true if the last search gave up because of stateLimit
+    boolean limitReached;
+
+    /** Find the shortest sequence of moves that passes the level
+      * @param start the state to search from, it is not modified
+      * @return the moves in order, or null if the level cannot be passed
+      *         or stateLimit was reached
+      * */
+    public List<Direction> solve(GameState start) {
+        Set<GameState> visited = new HashSet<>();
+        ArrayDeque<SearchNode> frontier = new ArrayDeque<>();
+        SearchNode root = new SearchNode(new GameState(start), null, null);
+        visited.add(root.state);
+        frontier.add(root);
+        statesSeen = 1;
+        limitReached = false;
+        if (start.levelPassed) {
+            return new ArrayList<>();
+        }
+
+        while (!frontier.isEmpty()) {
+            if (statesSeen >= stateLimit) {
+                limitReached = true;
+                return null;
+            }
+            SearchNode node = frontier.poll();
+            for (Direction direction : Direction.values()) {
+                GameState next = new GameState(node.state);
+                //skip moves that do not go anywhere and
+                //states that were already reached
+                if (next.move(direction) == null || !visited.add(next)) {
+                    continue;
+                }
+                statesSeen++;
+                SearchNode child = new SearchNode(next, node, direction);
+                if (next.levelPassed) {
+                    return pathTo(child);
+                }
+                frontier.add(child);
+            }
+        }
+        return null;
+    }
+
+    /** Find the shortest sequence of moves that passes the level using
+      * the given number of threads. The frontier is expanded one layer at
+      * a time and every layer is split between the threads of a
+      * ForkJoinPool, which balance the work by stealing from each other.
+      * Since whole layers are expanded in order, the solution has the
+      * same length as the one found by solve().
+      * @param start the state to search from, it is not modified
+      * @param threads the number of threads to use
+      * @return the moves in order, or null if the level cannot be passed
+      *         or stateLimit was reached
+      * */
+    public List<Direction> solveParallel(GameState start, int threads) {
+        if (threads <= 1) {
+            return solve(start);
+        }
+        Set<GameState> visited = ConcurrentHashMap.newKeySet();
+        SearchNode root = new SearchNode(new GameState(start), null, null);
+        visited.add(root.state);
+        statesSeen = 1;
+        limitReached = false;
+        if (start.levelPassed) {
+            return new ArrayList<>();
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        AtomicInteger seen = new AtomicInteger(1);
+        try {
+            List<SearchNode> layer = Collections.singletonList(root);
+            while (!layer.isEmpty()) {
+                layer = pool.invoke(new ExpandTask(layer, 0, layer.size(),
+                        visited, seen, stateLimit));
+                statesSeen = seen.get();
+                //a solution in a layer that was cut short is still one
+                //of the shortest
+                for (SearchNode node : layer) {
+                    if (node.state.levelPassed) {
+                        return pathTo(node);
+                    }
+                }
+                if (statesSeen >= stateLimit) {
+                    limitReached = true;
+                    return null;
+                }
+            }
+            return null;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** This task expands a range of nodes of a layer and returns the
+      * states that were reached for the first time. Large ranges are
+      * split in half so that idle threads can steal one of the halves.
+      * */
+    static class ExpandTask extends RecursiveTask<List<SearchNode>> {
+        private static final long serialVersionUID = 1L;
+
+        // Ranges up to this size are expanded by a single thread
+        static final int SPLIT_SIZE = 64;
+
+        List<SearchNode> layer;
+        int from;
+        int to;
+        Set<GameState> visited;
+
+        // Number of states claimed by all tasks, expansion stops once
+        // it reaches stateLimit
+        AtomicInteger seen;
+        int stateLimit;
+
+        ExpandTask(List<SearchNode> layer, int from, int to,
+                   Set<GameState> visited, AtomicInteger seen,
+                   int stateLimit) {
+            this.layer = layer;
+            this.from = from;
+            this.to = to;
+            this.visited = visited;
+            this.seen = seen;
+            this.stateLimit = stateLimit;
+        }
+
+        @Override
+        protected List<SearchNode> compute() {
+            if (to - from > SPLIT_SIZE) {
+                int middle = (from + to) >>> 1;
+                ExpandTask left = new ExpandTask(layer, from, middle,
+                        visited, seen, stateLimit);
+                ExpandTask right = new ExpandTask(layer, middle, to,
+                        visited, seen, stateLimit);
+                left.fork();
+                List<SearchNode> result = right.compute();
+                List<SearchNode> leftResult = left.join();
+                leftResult.addAll(result);
+                return leftResult;
+            }
+
+            List<SearchNode> next = new ArrayList<>();
+            for (int i = from; i < to && seen.get() < stateLimit; i++) {
+                SearchNode node = layer.get(i);
+                for (Direction direction : Direction.values()) {
+                    GameState state = new GameState(node.state);
+                    //the concurrent set lets exactly one thread claim
+                    //each new state
+                    if (state.move(direction) == null
+                            || !visited.add(state)) {
+                        continue;
+                    }
+                    seen.incrementAndGet();
+                    next.add(new SearchNode(state, node, direction));
+                }
+            }
+            return next;
+        }
+    }
+
+    /** Collect the moves that lead from the root of the search to node
+      * @param node the last node of the path
+      * @return the moves in order
+      * */
+    static List<Direction> pathTo(SearchNode node) {
+        LinkedList<Direction> moves = new LinkedList<>();
+        for (SearchNode n = node; n.parent != null; n = n.parent) {
+            moves.addFirst(n.direction);
+        }
+        return moves;
+    }
+
+    /** Turn a list of moves into a string of w / a / s / d commands
+      * @param moves the moves in order
+      * @return the commands in the same order
+      * */
+    static String toCommands(List<Direction> moves) {
+        StringBuilder commands = new StringBuilder();
+        for (Direction direction : moves) {
+            commands.append(Streamline.toCommand(direction));
+        }
+        return commands.toString();
+    }
+
+    /** Solve the level stored in the file given on the command line
+      * and print the solution
+      * */
+    public static void main(String[] args) {
+        int threads = 1;
+        boolean offHeap = false;
+        boolean all = false;
+        int next = 0;
+        try {
+            while (next < args.length - 1) {
+                if (args[next].equals(THREADS_FLAG)) {
+                    threads = Integer.parseInt(args[next + 1]);
+                    next += 2;
+                } else if (args[next].equals(OFF_HEAP_FLAG)) {
+                    offHeap = true;
+                    next++;
+                } else if (args[next].equals(ALL_FLAG)) {
+                    all = true;
+                    next++;
+                } else {
+                    break;
+                }
+            }
+        } catch (NumberFormatException e) {
+            System.out.print(USAGE);
+            return;
+        }
+        if (next != args.length - 1 || threads < 1 || (all && !offHeap)) {
+            System.out.print(USAGE);
+            return;
+        }
+        args = new String[]{args[next]};
+        if (!new File(args[0]).isFile()) {
+            System.out.printf("File %s does not exist. Exiting...\n", args[0]);
+            return;
+        }
+        Streamline game = new Streamline(args[0]);
+        if (game.currentState == null) {
+            return;
+        }
+
+        if (offHeap) {
+            solveOffHeap(game.currentState, all);
+            return;
+        }
+        StreamlineSolver solver = new StreamlineSolver();
+        long startTime = System.nanoTime();
+        List<Direction> moves = solver.solveParallel(game.currentState,
+            threads);
+        long elapsed = System.nanoTime() - startTime;
+
+        if (moves == null) {
+            System.out.println("No solution.");
+        } else {
+            System.out.printf("Solution in %d moves: %s\n", moves.size(),
+                toCommands(moves));
+        }
+        System.out.printf("Searched %d states in %.3f ms\n",
+            solver.statesSeen, elapsed / 1e6);
+    }
+
+    /** Solve a level with an OffHeapSolver and print the solution
+      * @param state the level
+      * @param all true to also count every reachable state
+      * */
+    static void solveOffHeap(GameState state, boolean all) {
+        OffHeapSolver solver = new OffHeapSolver();
+        solver.exhaustive = all;
+        long startTime = System.nanoTime();
+        List<Direction> moves = solver.solve(state);
+        long elapsed = System.nanoTime() - startTime;
+
+        if (moves == null) {
+            System.out.println("No solution.");
+        } else {
+            System.out.printf("Solution in %d moves: %s\n", moves.size(),
+                toCommands(moves));
+        }
+        System.out.printf("Searched %d states in %.3f ms using %d MB off " +
+            "the heap\n", solver.statesSeen, elapsed / 1e6,
+            solver.offHeapBytes >> 20);
+    }
+}
@@ -0,0 +1,191 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import javafx.scene.shape.*;
+
+/** This renderer only creates shapes for the cells around the part of
+  * the board the camera shows, plus a margin so that short moves of the
+  * camera need no work at all. When the camera leaves that window, the
+  * shapes are taken off their cells and reused for the cells of the new
+  * window. The number of shapes therefore depends on the size of the
+  * scene, not on the size of the board.
+  * */
+public class ViewportBoardRenderer implements BoardRenderer {
+
+    // Number of cells materialized beyond every edge of the visible area
+    static final int MARGIN_CELLS = 8;
+
+    GuiStreamline gui;
+
+    // Shapes of the cells in the window, null for empty cells
+    Shape[][] window;
+    int windowRow;                      // Board row of window[0]
+    int windowCol;                      // Board column of window[..][0]
+
+    // Shapes that are not bound to a cell, they stay in the level
+    // group but are invisible
+    List<RoundedSquare> freeSquares = new ArrayList<>();
+    List<Circle> freeCircles = new ArrayList<>();
+
+    /** Create a renderer that draws into the level group of the GUI
+      * @param gui the GUI that shows the current level
+      * */
+    public ViewportBoardRenderer(GuiStreamline gui) {
+        this.gui = gui;
+    }
+
+    /**
+     * Drop all shapes of the previous level. The window is filled by
+     * viewportChanged() once the camera is in place.
+     */
+    @Override
+    public void reset() {
+        gui.levelGroup.getChildren().clear();
+        freeSquares.clear();
+        freeCircles.clear();
+        window = null;
+    }
+
+    /**
+     * Rebuild the window around the visible area.
+     */
+    @Override
+    public void redrawAll() {
+        if (window != null) {
+            fillWindow(windowRow, windowCol, window.length,
+                window.length == 0 ? 0 : window[0].length);
+        }
+    }
+
+    /**
+     * Rebind the shape of a single cell if it is inside the window.
+     * @param row the board row of the cell
+     * @param col the board column of the cell
+     */
+    @Override
+    public void cellChanged(int row, int col) {
+        if (window == null) {
+            return;
+        }
+        int windowI = row - windowRow;
+        int windowJ = col - windowCol;
+        if (windowI < 0 || windowI >= window.length
+                || windowJ < 0 || windowJ >= window[0].length) {
+            return;
+        }
+        release(windowI, windowJ);
+        bind(windowI, windowJ);
+    }
+
+    /**
+     * Move the window if the visible area is no longer inside it.
+     */
+    @Override
+    public void viewportChanged() {
+        double squareSize = gui.getSquareSize();
+        int firstRow = (int) Math.floor(gui.cameraY / squareSize);
+        int firstCol = (int) Math.floor(gui.cameraX / squareSize);
+        int lastRow = (int) Math.ceil(
+            (gui.cameraY + gui.mainScene.getHeight()) / squareSize);
+        int lastCol = (int) Math.ceil(
+            (gui.cameraX + gui.mainScene.getWidth()) / squareSize);
+
+        boolean inside = window != null
+            && firstRow >= windowRow && firstCol >= windowCol
+            && Math.min(lastRow, gui.getBoardHeight())
+                <= windowRow + window.length
+            && Math.min(lastCol, gui.getBoardWidth())
+                <= windowCol + (window.length == 0 ? 0 : window[0].length);
+        if (inside) {
+            return;
+        }
+
+        int top = Math.max(0, firstRow - MARGIN_CELLS);
+        int left = Math.max(0, firstCol - MARGIN_CELLS);
+        int bottom = Math.min(gui.getBoardHeight(), lastRow + MARGIN_CELLS);
+        int right = Math.min(gui.getBoardWidth(), lastCol + MARGIN_CELLS);
+        fillWindow(top, left, Math.max(0, bottom - top),
+            Math.max(0, right - left));
+    }
+
+    /**
+     * Release every shape of the old window and bind shapes to the cells
+     * of the new one.
+     */
+    void fillWindow(int top, int left, int rows, int cols) {
+        if (window != null) {
+            for (int i = 0; i < window.length; i++) {
+                for (int j = 0; j < window[i].length; j++) {
+                    release(i, j);
+                }
+            }
+        }
+        window = new Shape[rows][cols];
+        windowRow = top;
+        windowCol = left;
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                bind(i, j);
+            }
+        }
+    }
+
+    /**
+     * Give a cell of the window the shape that matches its content.
+     */
+    void bind(int windowI, int windowJ) {
+        int row = windowRow + windowI;
+        int col = windowCol + windowJ;
+        char cell = gui.game.currentState.board.get(row, col);
+        double[] center = gui.boardIdxToScenePos(col, row);
+
+        if (cell == GameState.OBSTACLE_CHAR) {
+            RoundedSquare square = freeSquares.isEmpty()
+                ? newSquare() : freeSquares.remove(freeSquares.size() - 1);
+            square.setCenterX(center[0]);
+            square.setCenterY(center[1]);
+            square.setVisible(true);
+            window[windowI][windowJ] = square;
+        } else if (cell == GameState.TRAIL_CHAR) {
+            Circle circle = freeCircles.isEmpty()
+                ? newCircle() : freeCircles.remove(freeCircles.size() - 1);
+            circle.setCenterX(center[0]);
+            circle.setCenterY(center[1]);
+            circle.setVisible(true);
+            window[windowI][windowJ] = circle;
+        }
+    }
+
+    /**
+     * Take the shape off a cell of the window and keep it for later.
+     */
+    void release(int windowI, int windowJ) {
+        Shape shape = window[windowI][windowJ];
+        if (shape == null) {
+            return;
+        }
+        shape.setVisible(false);
+        if (shape instanceof RoundedSquare) {
+            freeSquares.add((RoundedSquare) shape);
+        } else {
+            freeCircles.add((Circle) shape);
+        }
+        window[windowI][windowJ] = null;
+    }
+
+    RoundedSquare newSquare() {
+        RoundedSquare square = new RoundedSquare(
+            GuiStreamline.SQUARE_FRACTION * gui.getSquareSize());
+        square.setFill(GuiStreamline.OBSTACLE_COLOR);
+        gui.levelGroup.getChildren().add(square);
+        return square;
+    }
+
+    Circle newCircle() {
+        Circle circle = new Circle(
+            GuiStreamline.TRAIL_RADIUS_FRACTION * gui.getSquareSize());
+        circle.setFill(GuiStreamline.TRAIL_COLOR);
+        gui.levelGroup.getChildren().add(circle);
+        return circle;
+    }
+}
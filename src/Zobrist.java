@@ -0,0 +1,43 @@
+/** This class provides the random 64-bit keys used for Zobrist hashing
+  * of game states. The hash of a state is the XOR of the keys of
+  * everything it contains, so it can be updated in constant time for
+  * every cell that changes. Keys are derived from their kind and index
+  * with a mixing function instead of being stored in tables, so boards
+  * of any size share them.
+  * */
+public final class Zobrist {
+
+    // Kinds of things that contribute to the hash of a state
+    final static int SIZE = 0;
+    final static int OBSTACLE = 1;
+    final static int TRAIL = 2;
+    final static int PLAYER = 3;
+    final static int GOAL = 4;
+    final static int PASSED = 5;
+
+    final static int KIND_BITS = 3;
+    final static long SEED = 0x5DEECE66DL;
+
+    private Zobrist() {
+    }
+
+    /** Return the key of a thing of the given kind at the given index
+      * @param kind one of the kinds above
+      * @param index the cell index or other value of the thing
+      * @return a well mixed 64-bit key
+      * */
+    static long key(int kind, long index) {
+        return mix((index << KIND_BITS | kind) + SEED);
+    }
+
+    /** The finalizer of the SplitMix64 generator, a cheap function that
+      * spreads every input bit over the whole output
+      * @param z the value to mix
+      * @return the mixed value
+      * */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}